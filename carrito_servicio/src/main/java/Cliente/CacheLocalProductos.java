@@ -0,0 +1,191 @@
+package Cliente;
+
+import DTO.ProductoDTO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.quarkus.cache.CacheName;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Copia local (L1) de los productos que StockClient guarda en producto-cache (L2, en Redis y compartida por
+// todas las réplicas). El catálogo publica en CANAL_INVALIDACIONES cada producto que cambia y cada réplica
+// borra el suyo de las dos cachés. Si se pierde un mensaje, la copia local dura como mucho su expiración.
+//
+// Lo que hay que pedir al catálogo se carga con CargaUnica (una consulta por producto aunque lo pidan muchos
+// carritos a la vez) y, mientras se recarga un producto recién invalidado, se sirve la copia anterior.
+// Los IDs que el catálogo no conoce se recuerdan un rato para no volver a pedirlos en cada carrito.
+@ApplicationScoped
+public class CacheLocalProductos {
+
+    // Mismo canal en el que publica el catálogo
+    static final String CANAL_INVALIDACIONES = "productos-invalidados";
+
+    @Inject
+    RedisDataSource redisDataSource;
+
+    @Inject
+    @CacheName("producto-cache")
+    io.quarkus.cache.Cache productoCache;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry registry;
+
+    @ConfigProperty(name = "catalogo-service.cache-local.max-entradas", defaultValue = "10000")
+    long maxEntradas;
+
+    @ConfigProperty(name = "catalogo-service.cache-local.expiracion", defaultValue = "30s")
+    Duration expiracion;
+
+    @ConfigProperty(name = "catalogo-service.cache-local.anterior", defaultValue = "10s")
+    Duration duracionAnterior;
+
+    private Cache<Long, ProductoDTO> local;
+
+    // Copias retiradas por una invalidación, que solo se sirven mientras otra petición recarga el producto
+    private Cache<Long, ProductoDTO> anteriores;
+
+    private CargaUnica<Long, ProductoDTO> cargas;
+
+    @ConfigProperty(name = "catalogo-service.cache-local.ausentes-expiracion", defaultValue = "30s")
+    Duration expiracionAusentes;
+
+    private Cache<Long, Boolean> ausentes;
+
+    // Se incrementa con cada invalidación; lo que se leyó antes de una no se guarda en local
+    private final AtomicLong version = new AtomicLong();
+
+    private Counter aciertosL1;
+    private Counter fallosL1;
+    private Counter aciertosL2;
+    private Counter fallosL2;
+    private Counter anterioresServidos;
+    private Counter consultasAusentes;
+    private Counter aciertosAusentes;
+
+    void onStart(@Observes StartupEvent ev) {
+        local = Caffeine.newBuilder()
+                .maximumSize(maxEntradas)
+                .expireAfterWrite(expiracion)
+                .build();
+        anteriores = Caffeine.newBuilder()
+                .maximumSize(maxEntradas)
+                .expireAfterWrite(duracionAnterior)
+                .build();
+        ausentes = Caffeine.newBuilder()
+                .maximumSize(maxEntradas)
+                .expireAfterWrite(expiracionAusentes)
+                .build();
+        cargas = new CargaUnica<>(registry.counter("carrito_cache_producto_cargas_agrupadas_total"));
+        aciertosL1 = registry.counter("carrito_cache_producto_l1_aciertos_total");
+        fallosL1 = registry.counter("carrito_cache_producto_l1_fallos_total");
+        aciertosL2 = registry.counter("carrito_cache_producto_l2_aciertos_total");
+        fallosL2 = registry.counter("carrito_cache_producto_l2_fallos_total");
+        anterioresServidos = registry.counter("carrito_cache_producto_anteriores_servidos_total");
+        consultasAusentes = registry.counter("carrito_cache_producto_ausentes_consultas_total");
+        aciertosAusentes = registry.counter("carrito_cache_producto_ausentes_aciertos_total");
+
+        try {
+            redisDataSource.pubsub(Long.class).subscribe(CANAL_INVALIDACIONES, this::invalidar);
+        } catch (Exception e) {
+            System.err.println("No se ha podido suscribir al canal " + CANAL_INVALIDACIONES + ": " + e.getMessage());
+        }
+    }
+
+    public ProductoDTO obtener(Long id) {
+        ProductoDTO producto = local.getIfPresent(id);
+        if (producto != null) {
+            aciertosL1.inc();
+        } else {
+            fallosL1.inc();
+        }
+        return producto;
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    public void guardar(Long id, ProductoDTO producto, long versionLeida) {
+        if (version.get() == versionLeida) {
+            local.put(id, producto);
+            anteriores.invalidate(id);
+        }
+    }
+
+    public CargaUnica<Long, ProductoDTO> cargas() {
+        return cargas;
+    }
+
+    // La copia anterior a la última invalidación, si otra petición está recargando ya el producto
+    public ProductoDTO anteriorMientrasSeCarga(Long id) {
+        ProductoDTO anterior = anteriores.getIfPresent(id);
+        if (anterior == null || !cargas.cargando(id)) {
+            return null;
+        }
+        anterioresServidos.inc();
+        return anterior;
+    }
+
+    // true si el catálogo respondió hace poco que el producto no existe
+    public boolean ausente(Long id) {
+        consultasAusentes.inc();
+        if (ausentes.getIfPresent(id) != null) {
+            aciertosAusentes.inc();
+            return true;
+        }
+        return false;
+    }
+
+    public void marcarAusente(Long id, long versionLeida) {
+        if (version.get() == versionLeida) {
+            ausentes.put(id, Boolean.TRUE);
+        }
+    }
+
+    // Llamado también por el evento CREATED de productos-updated
+    public void olvidarAusente(Long id) {
+        version.incrementAndGet();
+        ausentes.invalidate(id);
+    }
+
+    @Gauge(name = "carrito_cache_producto_ausentes_ratio", unit = MetricUnits.PERCENT, absolute = true)
+    public double getRatioAusentes() {
+        long consultas = consultasAusentes == null ? 0 : consultasAusentes.getCount();
+        return consultas == 0 ? 0.0 : 100.0 * aciertosAusentes.getCount() / consultas;
+    }
+
+    public void aciertoL2() {
+        aciertosL2.inc();
+    }
+
+    public void falloL2() {
+        fallosL2.inc();
+    }
+
+    // Llega en el hilo de E/S de Redis, así que el borrado en producto-cache no se espera
+    private void invalidar(Long id) {
+        version.incrementAndGet();
+        ausentes.invalidate(id);
+        ProductoDTO previo = local.getIfPresent(id);
+        local.invalidate(id);
+        if (previo != null) {
+            anteriores.put(id, previo);
+        }
+        productoCache.invalidate(id).subscribe().with(
+                ignorado -> {},
+                error -> System.err.println("Error invalidando el producto " + id + " en Redis: " + error.getMessage()));
+    }
+}
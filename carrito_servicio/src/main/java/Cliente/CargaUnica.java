@@ -0,0 +1,81 @@
+package Cliente;
+
+import org.eclipse.microprofile.metrics.Counter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// Una sola carga en curso por clave. De las claves pedidas, las que ya se están cargando en otra petición se
+// esperan y el resto se cargan juntas con una sola llamada al cargador. Si una carga falla, todos los que la
+// esperaban reciben el error.
+public class CargaUnica<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> enCurso = new ConcurrentHashMap<>();
+
+    private final Counter agrupadas;
+
+    public CargaUnica(Counter agrupadas) {
+        this.agrupadas = agrupadas;
+    }
+
+    public boolean cargando(K clave) {
+        return enCurso.containsKey(clave);
+    }
+
+    // El cargador devuelve lo que encuentra; las claves que no aparecen en su resultado quedan fuera del mapa
+    public Map<K, V> cargarTodas(Collection<K> claves, Function<List<K>, Map<K, V>> cargador) {
+        Map<K, CompletableFuture<V>> propias = new HashMap<>();
+        Map<K, CompletableFuture<V>> ajenas = new HashMap<>();
+        for (K clave : new LinkedHashSet<>(claves)) {
+            CompletableFuture<V> propia = new CompletableFuture<>();
+            CompletableFuture<V> existente = enCurso.putIfAbsent(clave, propia);
+            if (existente == null) {
+                propias.put(clave, propia);
+            } else {
+                agrupadas.inc();
+                ajenas.put(clave, existente);
+            }
+        }
+
+        Map<K, V> resultado = new HashMap<>();
+        if (!propias.isEmpty()) {
+            try {
+                Map<K, V> cargados = cargador.apply(new ArrayList<>(propias.keySet()));
+                propias.forEach((clave, carga) -> carga.complete(cargados.get(clave)));
+                resultado.putAll(cargados);
+            } catch (RuntimeException e) {
+                propias.values().forEach(carga -> carga.completeExceptionally(e));
+                throw e;
+            } finally {
+                propias.forEach(enCurso::remove);
+            }
+        }
+
+        ajenas.forEach((clave, carga) -> {
+            V valor = esperar(carga);
+            if (valor != null) {
+                resultado.put(clave, valor);
+            }
+        });
+        return resultado;
+    }
+
+    private V esperar(CompletableFuture<V> carga) {
+        try {
+            return carga.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
+        }
+    }
+}
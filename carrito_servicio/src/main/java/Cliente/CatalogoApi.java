@@ -0,0 +1,44 @@
+package Cliente;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+
+import java.util.Map;
+
+// Cliente REST reactivo del servicio de catálogo. Es un bean único que reutiliza el pool de conexiones
+// (keep-alive y HTTP/2 cuando el servidor lo admite) configurado en quarkus.rest-client.catalogo-api.*
+@RegisterRestClient(configKey = "catalogo-api")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public interface CatalogoApi {
+
+    @GET
+    @Path("/{id}")
+    Uni<Response> obtenerProducto(@PathParam("id") Long id);
+
+    @GET
+    @Path("/{id}/disponibilidad")
+    Uni<Response> obtenerDisponibilidad(@PathParam("id") Long id);
+
+    @POST
+    @Path("/disponibilidad/lote")
+    Uni<Response> obtenerDisponibilidades(Map<String, Object> body);
+
+    @POST
+    @Path("/lote")
+    Uni<Response> obtenerLote(Map<String, Object> body);
+
+    @POST
+    @Path("/reservas")
+    Uni<Response> reservarStock(@HeaderParam(HttpHeaders.AUTHORIZATION) String jwt, Map<String, Object> body);
+}
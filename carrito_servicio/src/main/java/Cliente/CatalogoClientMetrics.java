@@ -0,0 +1,61 @@
+package Cliente;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ApplicationScoped
+public class CatalogoClientMetrics {
+
+    @ConfigProperty(name = "quarkus.rest-client.catalogo-api.connection-pool-size", defaultValue = "50")
+    int tamanioPool;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry registry;
+
+    private final AtomicInteger peticionesEnCurso = new AtomicInteger();
+
+    private Counter peticionesEnEspera;
+
+    @PostConstruct
+    public void init() {
+        peticionesEnEspera = registry.counter("catalogo_client_pool_esperas_total");
+    }
+
+    // Contabiliza la petición mientras está en vuelo. Si al lanzarla el pool ya está lleno, la petición
+    // tendrá que esperar a que se libere una conexión y se cuenta como espera.
+    public <T> Uni<T> medir(Uni<T> peticion) {
+        return peticion
+                .onSubscription().invoke(subscription -> {
+                    if (peticionesEnCurso.incrementAndGet() > tamanioPool) {
+                        peticionesEnEspera.inc();
+                    }
+                })
+                .onTermination().invoke(peticionesEnCurso::decrementAndGet);
+    }
+
+    @Gauge(name = "catalogo_client_peticiones_en_curso", unit = MetricUnits.NONE, absolute = true)
+    public int getPeticionesEnCurso() {
+        return peticionesEnCurso.get();
+    }
+
+    @Gauge(name = "catalogo_client_pool_tamanio", unit = MetricUnits.NONE, absolute = true)
+    public int getTamanioPool() {
+        return tamanioPool;
+    }
+
+    @Gauge(name = "catalogo_client_pool_saturacion", unit = MetricUnits.PERCENT, absolute = true)
+    public double getSaturacion() {
+        return tamanioPool == 0 ? 0.0 : 100.0 * peticionesEnCurso.get() / tamanioPool;
+    }
+}
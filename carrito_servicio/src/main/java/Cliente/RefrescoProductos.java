@@ -0,0 +1,174 @@
+package Cliente;
+
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Refresco anticipado de producto-cache. Cada vez que un producto se pide al catálogo se apunta cuándo en
+// producto-cache:cargado:{id}, compartido por todas las réplicas. Una entrada de producto-cache que ya ha
+// pasado "refresco.tras" se sigue sirviendo, pero se recarga en segundo plano, de modo que solo llegan a la
+// expiración de Redis los productos que nadie consulta. Las recargas van a un pool pequeño con cola acotada;
+// si la cola está llena se descartan y el producto se vuelve a intentar en la siguiente lectura.
+@ApplicationScoped
+public class RefrescoProductos {
+
+    private static final String PREFIJO = "producto-cache:cargado:";
+
+    @Inject
+    ReactiveRedisDataSource reactiveRedisDataSource;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry registry;
+
+    @ConfigProperty(name = "catalogo-service.refresco.tras", defaultValue = "10M")
+    Duration refrescarTras;
+
+    // Las marcas duran lo mismo que producto-cache
+    @ConfigProperty(name = "quarkus.cache.redis.\"producto-cache\".expire-after-write", defaultValue = "15M")
+    Duration expiracion;
+
+    @ConfigProperty(name = "catalogo-service.refresco.hilos", defaultValue = "2")
+    int hilos;
+
+    @ConfigProperty(name = "catalogo-service.refresco.cola", defaultValue = "100")
+    int tamanioCola;
+
+    private ThreadPoolExecutor executor;
+
+    // Productos con una recarga ya programada o en curso en esta réplica
+    private final Set<Long> programados = ConcurrentHashMap.newKeySet();
+
+    private Counter refrescosProgramados;
+    private Counter refrescosCompletados;
+    private Counter refrescosFallidos;
+    private Counter refrescosDescartados;
+    private Counter caducadosServidos;
+    private Histogram antiguedadServida;
+
+    void onStart(@Observes StartupEvent ev) {
+        AtomicInteger numero = new AtomicInteger();
+        executor = new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(tamanioCola),
+                tarea -> {
+                    Thread hilo = new Thread(tarea, "refresco-productos-" + numero.incrementAndGet());
+                    hilo.setDaemon(true);
+                    return hilo;
+                });
+        refrescosProgramados = registry.counter("carrito_cache_producto_refrescos_programados_total");
+        refrescosCompletados = registry.counter("carrito_cache_producto_refrescos_completados_total");
+        refrescosFallidos = registry.counter("carrito_cache_producto_refrescos_fallidos_total");
+        refrescosDescartados = registry.counter("carrito_cache_producto_refrescos_descartados_total");
+        caducadosServidos = registry.counter("carrito_cache_producto_caducados_servidos_total");
+        antiguedadServida = registry.histogram("carrito_cache_producto_caducados_antiguedad_segundos");
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        executor.shutdownNow();
+    }
+
+    public void marcarCargados(Collection<Long> ids) {
+        long ahora = System.currentTimeMillis();
+        for (Long id : ids) {
+            String clave = PREFIJO + id;
+            reactiveRedisDataSource.value(String.class, Long.class)
+                    .setex(clave, expiracion.toSeconds(), ahora)
+                    .subscribe().with(
+                            ignorado -> {},
+                            error -> System.err.println("Error guardando " + clave + " en Redis: " + error.getMessage()));
+        }
+    }
+
+    // Cuándo se cargó cada producto, en milisegundos. Los que no tienen marca no aparecen en el mapa.
+    public Uni<Map<Long, Long>> cargadosEn(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Uni.createFrom().item(Map.of());
+        }
+        String[] claves = ids.stream().map(id -> PREFIJO + id).toArray(String[]::new);
+        return reactiveRedisDataSource.value(String.class, Long.class).mget(claves)
+                .map(valores -> {
+                    Map<Long, Long> cargados = new HashMap<>();
+                    for (Long id : ids) {
+                        Long cargado = valores.get(PREFIJO + id);
+                        if (cargado != null) {
+                            cargados.put(id, cargado);
+                        }
+                    }
+                    return cargados;
+                });
+    }
+
+    // Un producto sin marca se considera caducado: se cacheó antes de existir las marcas o se perdió la escritura
+    public boolean caducado(Long cargadoEn) {
+        return cargadoEn == null || System.currentTimeMillis() - cargadoEn >= refrescarTras.toMillis();
+    }
+
+    public void caducadoServido(Long cargadoEn) {
+        caducadosServidos.inc();
+        if (cargadoEn != null) {
+            antiguedadServida.update((System.currentTimeMillis() - cargadoEn) / 1000);
+        }
+    }
+
+    // Programa una sola recarga para los productos que no tengan ya una en marcha
+    public void programar(Collection<Long> ids, Consumer<List<Long>> recargar) {
+        List<Long> nuevos = new ArrayList<>();
+        for (Long id : ids) {
+            if (programados.add(id)) {
+                nuevos.add(id);
+            }
+        }
+        if (nuevos.isEmpty()) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    recargar.accept(nuevos);
+                    refrescosCompletados.inc();
+                } catch (Exception e) {
+                    refrescosFallidos.inc();
+                    System.err.println("Error refrescando los productos " + nuevos + ": " + e.getMessage());
+                } finally {
+                    nuevos.forEach(programados::remove);
+                }
+            });
+            refrescosProgramados.inc();
+        } catch (RejectedExecutionException e) {
+            nuevos.forEach(programados::remove);
+            refrescosDescartados.inc();
+        }
+    }
+
+    @Gauge(name = "carrito_cache_producto_refrescos_en_cola", unit = MetricUnits.NONE, absolute = true)
+    public int getRefrescosEnCola() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+}
@@ -0,0 +1,238 @@
+package Cliente;
+
+import DTO.ProductoDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Copia en memoria del catálogo construida a partir de productos-snapshot, el topic compactado en el que el
+// catálogo publica el estado completo de cada producto con su ID como clave. Cada réplica del carrito lee todas
+// las particiones desde el principio, sin grupo de consumidores, así que al arrancar recupera el catálogo entero
+// y después sigue los cambios. Un valor nulo (tombstone) es un producto borrado.
+//
+// Mientras no se ha leído el topic hasta el final que tenía al arrancar, si el retraso pasa de
+// carrito.replica.lag-maximo o si se ha perdido la conexión con Kafka (retraso desconocido), la réplica no se
+// usa y todo se pide al catálogo por StockClient, igual que lo que no está en ella. Por eso no afecta a la
+// readiness: sin réplica el carrito sigue funcionando.
+@ApplicationScoped
+public class ReplicaCatalogo {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry registry;
+
+    @ConfigProperty(name = "mp.messaging.connector.smallrye-kafka.bootstrap.servers")
+    String bootstrapServers;
+
+    @ConfigProperty(name = "carrito.replica.enabled", defaultValue = "true")
+    boolean habilitada;
+
+    @ConfigProperty(name = "carrito.replica.topic", defaultValue = "productos-snapshot")
+    String topic;
+
+    @ConfigProperty(name = "carrito.replica.lag-maximo", defaultValue = "1000")
+    long lagMaximo;
+
+    private final Map<Long, ProductoDTO> productos = new ConcurrentHashMap<>();
+
+    // Posición de cada partición, para continuar por donde se iba si hay que reconectar
+    private final Map<TopicPartition, Long> posiciones = new HashMap<>();
+
+    private volatile boolean cargada;
+
+    private volatile long lag = -1;
+
+    private volatile boolean parada;
+
+    private volatile KafkaConsumer<String, String> consumidor;
+
+    private Thread hilo;
+
+    private Counter aciertos;
+    private Counter fallos;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!habilitada) {
+            return;
+        }
+        aciertos = registry.counter("carrito_replica_catalogo_aciertos_total");
+        fallos = registry.counter("carrito_replica_catalogo_fallos_total");
+
+        hilo = new Thread(this::bucle, "replica-catalogo");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        parada = true;
+        KafkaConsumer<String, String> actual = consumidor;
+        if (actual != null) {
+            actual.wakeup();
+        }
+    }
+
+    // null si el producto no está o si la réplica no está al día, para que no se sirvan precios atrasados
+    public ProductoDTO obtener(Long id) {
+        if (!habilitada || !alDia()) {
+            return null;
+        }
+        ProductoDTO producto = productos.get(id);
+        if (producto != null) {
+            aciertos.inc();
+        } else {
+            fallos.inc();
+        }
+        return producto;
+    }
+
+    public boolean habilitada() {
+        return habilitada;
+    }
+
+    public boolean cargada() {
+        return cargada;
+    }
+
+    // Mensajes pendientes de leer en todas las particiones; -1 mientras no se conoce
+    public long lag() {
+        return lag;
+    }
+
+    public boolean alDia() {
+        return cargada && lag >= 0 && lag <= lagMaximo;
+    }
+
+    private void bucle() {
+        while (!parada) {
+            try (KafkaConsumer<String, String> actual = new KafkaConsumer<>(propiedades())) {
+                consumidor = actual;
+                List<TopicPartition> particiones = particiones(actual);
+                if (particiones.isEmpty()) {
+                    esperar();
+                    continue;
+                }
+
+                actual.assign(particiones);
+                for (TopicPartition particion : particiones) {
+                    Long posicion = posiciones.get(particion);
+                    if (posicion != null) {
+                        actual.seek(particion, posicion);
+                    } else {
+                        actual.seekToBeginning(List.of(particion));
+                    }
+                }
+                // Final del topic al arrancar: hasta llegar a él la réplica no está completa
+                Map<TopicPartition, Long> finales = actual.endOffsets(particiones);
+
+                while (!parada) {
+                    for (ConsumerRecord<String, String> registro : actual.poll(Duration.ofMillis(500))) {
+                        aplicar(registro);
+                    }
+                    long pendientes = 0;
+                    boolean completa = true;
+                    for (TopicPartition particion : particiones) {
+                        long posicion = actual.position(particion);
+                        posiciones.put(particion, posicion);
+                        if (posicion < finales.get(particion)) {
+                            completa = false;
+                        }
+                        OptionalLong retraso = actual.currentLag(particion);
+                        pendientes += retraso.orElse(Math.max(0, finales.get(particion) - posicion));
+                    }
+                    lag = pendientes;
+                    if (completa && !cargada) {
+                        cargada = true;
+                        System.out.println("Réplica del catálogo cargada desde " + topic + ": "
+                                + productos.size() + " productos");
+                    }
+                }
+            } catch (WakeupException e) {
+                // Parada de la aplicación
+            } catch (Exception e) {
+                System.err.println("Error leyendo " + topic + " para la réplica del catálogo: " + e.getMessage());
+                // Retraso desconocido: la réplica no se usa hasta volver a leer el topic
+                lag = -1;
+                esperar();
+            } finally {
+                consumidor = null;
+            }
+        }
+    }
+
+    private List<TopicPartition> particiones(KafkaConsumer<String, String> actual) {
+        List<PartitionInfo> info = actual.partitionsFor(topic);
+        if (info == null) {
+            return List.of();
+        }
+        return info.stream().map(p -> new TopicPartition(topic, p.partition())).toList();
+    }
+
+    private void aplicar(ConsumerRecord<String, String> registro) {
+        try {
+            Long id = Long.valueOf(registro.key());
+            if (registro.value() == null) {
+                productos.remove(id);
+            } else {
+                productos.put(id, MAPPER.readValue(registro.value(), ProductoDTO.class));
+            }
+        } catch (Exception e) {
+            System.err.println("Snapshot de producto no válido en " + topic + " (clave " + registro.key() + "): "
+                    + e.getMessage());
+        }
+    }
+
+    private Properties propiedades() {
+        Properties props = new Properties();
+        props.put("bootstrap.servers", bootstrapServers);
+        props.put("key.deserializer", StringDeserializer.class.getName());
+        props.put("value.deserializer", StringDeserializer.class.getName());
+        props.put("enable.auto.commit", "false");
+        props.put("auto.offset.reset", "earliest");
+        props.put("max.poll.records", "1000");
+        return props;
+    }
+
+    private void esperar() {
+        try {
+            Thread.sleep(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            parada = true;
+        }
+    }
+
+    @Gauge(name = "carrito_replica_catalogo_productos", unit = MetricUnits.NONE, absolute = true)
+    public int getProductos() {
+        return productos.size();
+    }
+
+    @Gauge(name = "carrito_replica_catalogo_lag", unit = MetricUnits.NONE, absolute = true)
+    public long getLag() {
+        return lag;
+    }
+}
@@ -0,0 +1,101 @@
+package Cliente;
+
+import DTO.ProductoDTO;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.RedisDataSource;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+// Última versión conocida de cada producto, para seguir mostrando los carritos cuando el circuito hacia el
+// catálogo está abierto. Se escribe sin esperar cada vez que el catálogo devuelve un producto y dura bastante
+// más que producto-cache, que es la que sirve el camino normal.
+@ApplicationScoped
+public class RespaldoProductos {
+
+    private static final String PREFIJO = "producto-cache:";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Inject
+    RedisDataSource redisDataSource;
+
+    @Inject
+    ReactiveRedisDataSource reactiveRedisDataSource;
+
+    @ConfigProperty(name = "catalogo-service.respaldo.ttl", defaultValue = "24H")
+    Duration ttl;
+
+    public void guardar(Collection<ProductoDTO> productos) {
+        for (ProductoDTO producto : productos) {
+            String clave = PREFIJO + producto.id();
+            reactiveRedisDataSource.value(String.class, String.class)
+                    .setex(clave, ttl.toSeconds(), codificar(producto))
+                    .subscribe().with(
+                            ignorado -> {},
+                            error -> System.err.println("Error guardando " + clave + " en Redis: " + error.getMessage()));
+        }
+    }
+
+    // Una sola petición MGET para todos los IDs. Los que no están (o no se pueden leer) no aparecen en el mapa.
+    public Map<Long, ProductoDTO> leer(Collection<Long> ids) {
+        List<Long> unicos = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<Long, ProductoDTO> productos = new HashMap<>();
+        if (unicos.isEmpty()) {
+            return productos;
+        }
+
+        String[] claves = unicos.stream().map(id -> PREFIJO + id).toArray(String[]::new);
+        Map<String, String> valores = redisDataSource.value(String.class, String.class).mget(claves);
+        for (Long id : unicos) {
+            String valor = valores.get(PREFIJO + id);
+            ProductoDTO producto = valor == null ? null : decodificar(valor);
+            if (producto != null) {
+                productos.put(id, producto);
+            }
+        }
+        return productos;
+    }
+
+    // Array JSON sin nombres de campo: [id, nombre, precio, stock, imagenUrl]. El precio va como texto para
+    // no perder decimales al leerlo.
+    public static String codificar(ProductoDTO producto) {
+        return MAPPER.createArrayNode()
+                .add(producto.id())
+                .add(producto.nombre())
+                .add(producto.precio() == null ? null : producto.precio().toPlainString())
+                .add(producto.stock())
+                .add(producto.imagenUrl())
+                .toString();
+    }
+
+    public static ProductoDTO decodificar(String valor) {
+        try {
+            JsonNode campos = MAPPER.readTree(valor);
+            String precio = texto(campos.get(2));
+            return new ProductoDTO(
+                    campos.get(0).asLong(),
+                    texto(campos.get(1)),
+                    precio == null ? null : new BigDecimal(precio),
+                    campos.get(3).isNull() ? null : campos.get(3).asInt(),
+                    texto(campos.get(4)));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String texto(JsonNode nodo) {
+        return nodo.isNull() ? null : nodo.asText();
+    }
+}
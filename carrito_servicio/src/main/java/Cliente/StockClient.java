@@ -1,62 +1,119 @@
 package Cliente;
 
+import DTO.DisponibilidadDTO;
 import DTO.ProductoDTO;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
 import io.quarkus.cache.CacheResult;
-import io.quarkus.redis.datasource.RedisDataSource;
-import io.quarkus.redis.datasource.value.ValueCommands;
+import io.quarkus.cache.redis.RedisCache;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.faulttolerance.api.CircuitBreakerMaintenance;
+import io.smallrye.faulttolerance.api.CircuitBreakerName;
+import io.smallrye.faulttolerance.api.CircuitBreakerState;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.WebApplicationException;
-import jakarta.ws.rs.client.Client;
-import jakarta.ws.rs.client.ClientBuilder;
-import jakarta.ws.rs.client.Entity;
-import jakarta.ws.rs.core.HttpHeaders;
-import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.GenericType;
 import jakarta.ws.rs.core.Response;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Fallback;
 import org.eclipse.microprofile.faulttolerance.Retry;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @ApplicationScoped
 public class StockClient {
 
-    @ConfigProperty(name = "catalogo-service.url")
-    String urlCatalogoService;
+    @Inject
+    @RestClient
+    CatalogoApi catalogoApi;
+
+    @Inject
+    CatalogoClientMetrics metricasCliente;
+
+    @ConfigProperty(name = "catalogo-service.timeout", defaultValue = "3S")
+    Duration timeout;
+
+    @ConfigProperty(name = "catalogo-service.fan-out.enabled", defaultValue = "false")
+    boolean fanOut;
+
+    @ConfigProperty(name = "catalogo-service.fan-out.concurrencia", defaultValue = "8")
+    int concurrenciaFanOut;
+
+    @ConfigProperty(name = "catalogo-service.fan-out.plazo", defaultValue = "2S")
+    Duration plazoFanOut;
+
+    @Inject
+    RespaldoProductos respaldo;
 
     @Inject
-    RedisDataSource redisDataSource;
+    @CacheName("producto-cache")
+    Cache productoCache;
 
-    // Intenta reservar stock para todos los productos especificados.
-    public void reservarStock(Map<Long, Integer> productos, String jwt) {
+    @Inject
+    CacheLocalProductos cacheLocal;
+
+    @Inject
+    RefrescoProductos refresco;
+
+    @Inject
+    ReplicaCatalogo replica;
+
+    @Inject
+    CircuitBreakerMaintenance circuitos;
+
+    // Circuito de obtenerProductosPorIds, que también decide si se lanzan los refrescos en segundo plano
+    static final String CIRCUITO_PRODUCTOS = "catalogo-productos";
+
+    // Marca de consultarEnParalelo para los productos por los que el catálogo no ha respondido a tiempo. No se
+    // cachea: obtenerProductosPorIds los busca en la copia de respaldo y, si tampoco están ahí, faltan en el mapa.
+    private static final ProductoDTO SIN_RESPUESTA = new ProductoDTO(null, null, null, null, null);
+
+    // Intenta reservar stock para todos los productos especificados. El catálogo asocia la reserva al pedido
+    // y la libera sola si el pedido no se confirma ni se cancela antes de que venza.
+    public void reservarStock(Map<Long, Integer> productos, Long ordenId, String jwt) {
+        reservarStockAsync(productos, ordenId, jwt).await().atMost(timeout);
+    }
+
+    public Uni<Void> reservarStockAsync(Map<Long, Integer> productos, Long ordenId, String jwt) {
         if (jwt == null || jwt.isBlank()) {
-            throw new RuntimeException("No hay token JWT válido. Llama a obtenerJwtParaCarrito primero.");
+            return Uni.createFrom().failure(
+                    new RuntimeException("No hay token JWT válido. Llama a obtenerJwtParaCarrito primero."));
         }
 
         // Construir payload batch según ReservaBatchRequest
-        Map<String, Object> bodyJson = Map.of(
-                "items", productos.entrySet()
-                        .stream()
-                        .map(e -> Map.of(
-                                "productoId", e.getKey(),
-                                "cantidad", e.getValue()
-                        ))
-                        .collect(Collectors.toList())
-        );
-
-        try (Client client = ClientBuilder.newBuilder().build();
-             Response respuesta = client.target(urlCatalogoService)
-                     .path("/reservas")
-                     .request(MediaType.APPLICATION_JSON)
-                     .header(HttpHeaders.AUTHORIZATION, jwt)
-                     .post(Entity.json(bodyJson))) {
+        Map<String, Object> bodyJson = new HashMap<>();
+        bodyJson.put("items", productos.entrySet()
+                .stream()
+                .map(e -> Map.of(
+                        "productoId", e.getKey(),
+                        "cantidad", e.getValue()
+                ))
+                .collect(Collectors.toList()));
+        if (ordenId != null) {
+            bodyJson.put("ordenId", ordenId);
+        }
+
+        return metricasCliente.medir(catalogoApi.reservarStock(jwt, bodyJson))
+                .invoke(respuesta -> comprobarReserva(respuesta, jwt))
+                .replaceWithVoid();
+    }
 
+    private void comprobarReserva(Response respuesta, String jwt) {
+        try (respuesta) {
             int status = respuesta.getStatus();
             String respBody = respuesta.readEntity(String.class);
 
@@ -72,68 +129,329 @@ public class StockClient {
                 throw new WebApplicationException("Error inesperado reservando stock. Status: " + status + " Body: " + respBody
                         + " Token empleado: "+ jwt);
             }
-
         }
     }
 
+    // Pasa por las mismas cachés (local y Redis) y la misma tolerancia a fallos que la consulta por lotes
+    public ProductoDTO obtenerProductoPorId(Long id) {
+        return obtenerProductosPorIds(List.of(id)).get(id);
+    }
+
+    // Variante no bloqueante con la misma caché y el mismo circuito. No tiene fallback: @CacheResult guardaría la
+    // copia de respaldo en producto-cache como si viniera del catálogo, así que el que llama decide qué hacer.
     @CacheResult(cacheName = "producto-cache")
     @CircuitBreaker(
             requestVolumeThreshold = 10,
             delay = 5,
             delayUnit = ChronoUnit.SECONDS
     )
-    @Fallback(fallbackMethod = "fallbackObtenerProductoPorId")
     @Retry(delay = 200, delayUnit = ChronoUnit.MILLIS)
-    public ProductoDTO obtenerProductoPorId(Long id) {
-        try (Client client = ClientBuilder.newBuilder().build()) {
-            Response response = client.target(urlCatalogoService)
-                    .path("/{id}")
-                    .resolveTemplate("id", id)
-                    .request(MediaType.APPLICATION_JSON)
-                    .get();
-
-            if (response.getStatus() == 404) {
-                return null;
+    public Uni<ProductoDTO> obtenerProductoPorIdAsync(Long id) {
+        return consultarProducto(id);
+    }
+
+    private Uni<ProductoDTO> consultarProducto(Long id) {
+        return metricasCliente.medir(catalogoApi.obtenerProducto(id))
+                .map(response -> {
+                    try (response) {
+                        if (response.getStatus() == 404) {
+                            return null;
+                        }
+
+                        if (response.getStatus() != 200) {
+                            throw new RuntimeException("Error consultando producto" +
+                                    " con ID " + id + ": status " + response.getStatus() +
+                                    " -> " + response.readEntity(String.class));
+                        }
+
+                        return response.readEntity(ProductoDTO.class);
+                    }
+                })
+                .invoke(producto -> {
+                    if (producto != null) {
+                        respaldo.guardar(List.of(producto));
+                        refresco.marcarCargados(List.of(producto.id()));
+                    }
+                });
+    }
+
+    // Solo las unidades disponibles (stock menos reservas), para cuando no hace falta el resto del producto.
+    // El catálogo las sirve desde una caché propia de vida corta. Devuelve null si el producto no existe.
+    @CircuitBreaker(
+            requestVolumeThreshold = 10,
+            delay = 5,
+            delayUnit = ChronoUnit.SECONDS
+    )
+    @Fallback(fallbackMethod = "fallbackObtenerDisponible")
+    @Retry(delay = 200, delayUnit = ChronoUnit.MILLIS)
+    public Integer obtenerDisponible(Long id) {
+        return metricasCliente.medir(catalogoApi.obtenerDisponibilidad(id))
+                .map(response -> {
+                    try (response) {
+                        if (response.getStatus() == 404) {
+                            return null;
+                        }
+                        if (response.getStatus() != 200) {
+                            throw new RuntimeException("Error consultando la disponibilidad del producto " + id +
+                                    ": status " + response.getStatus() + " -> " + response.readEntity(String.class));
+                        }
+                        return response.readEntity(DisponibilidadDTO.class).disponible();
+                    }
+                })
+                .await().atMost(timeout);
+    }
+
+    // Sin catálogo se usa el stock de la copia de respaldo del producto
+    public Integer fallbackObtenerDisponible(Long id) {
+        return fallbackObtenerProductoPorId(id).stock();
+    }
+
+    // Lo mismo para varios productos en una sola llamada. Los que no existen no aparecen en el mapa.
+    @CircuitBreaker(
+            requestVolumeThreshold = 10,
+            delay = 5,
+            delayUnit = ChronoUnit.SECONDS
+    )
+    @Fallback(fallbackMethod = "fallbackObtenerDisponibles")
+    @Retry(delay = 200, delayUnit = ChronoUnit.MILLIS)
+    public Map<Long, Integer> obtenerDisponibles(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        List<Long> unicos = new ArrayList<>(new LinkedHashSet<>(ids));
+        return metricasCliente.medir(catalogoApi.obtenerDisponibilidades(Map.of("ids", unicos)))
+                .map(response -> {
+                    try (response) {
+                        if (response.getStatus() != 200) {
+                            throw new RuntimeException("Error consultando la disponibilidad de los productos " + unicos +
+                                    ": status " + response.getStatus() + " -> " + response.readEntity(String.class));
+                        }
+                        return response.readEntity(new GenericType<List<DisponibilidadDTO>>() {});
+                    }
+                })
+                .await().atMost(timeout)
+                .stream()
+                .collect(Collectors.toMap(DisponibilidadDTO::productoId, DisponibilidadDTO::disponible));
+    }
+
+    // Sin catálogo, el stock de la copia de respaldo de los que estén en ella; el resto no se comprueba
+    public Map<Long, Integer> fallbackObtenerDisponibles(Collection<Long> ids) {
+        Map<Long, Integer> disponibles = new HashMap<>();
+        respaldo.leer(ids).forEach((id, producto) -> {
+            if (producto.stock() != null) {
+                disponibles.put(id, producto.stock());
+            }
+        });
+        return disponibles;
+    }
+
+    // Devuelve los productos encontrados indexados por ID. Los que ya están en la copia local o en producto-cache
+    // no se consultan y el resto se pide al catálogo en una única llamada. Los IDs inexistentes no aparecen en el
+    // mapa, y en modo fan-out tampoco los que no han respondido a tiempo y no están en la copia de respaldo (ver
+    // inexistente para distinguirlos). Lo que se sirve desde esa copia no se guarda en la caché local.
+    // Lo que lleva en producto-cache más de catalogo-service.refresco.tras se devuelve igual y se recarga aparte.
+    // Antes que nada se mira la réplica local del catálogo (ReplicaCatalogo) si está al día, que no necesita
+    // ninguna llamada.
+    @CircuitBreaker(
+            requestVolumeThreshold = 10,
+            delay = 5,
+            delayUnit = ChronoUnit.SECONDS
+    )
+    @CircuitBreakerName(CIRCUITO_PRODUCTOS)
+    @Fallback(fallbackMethod = "fallbackObtenerProductosPorIds")
+    @Retry(delay = 200, delayUnit = ChronoUnit.MILLIS)
+    public Map<Long, ProductoDTO> obtenerProductosPorIds(Collection<Long> ids) {
+        RedisCache cache = productoCache.as(RedisCache.class);
+        Map<Long, ProductoDTO> productos = new HashMap<>();
+        List<Long> pendientes = new ArrayList<>();
+        List<Long> fueraDeLocal = new ArrayList<>();
+        long version = cacheLocal.version();
+
+        for (Long id : new LinkedHashSet<>(ids)) {
+            ProductoDTO replicado = replica.obtener(id);
+            if (replicado != null) {
+                productos.put(id, replicado);
+                continue;
+            }
+            ProductoDTO cacheado = cacheLocal.obtener(id);
+            if (cacheado == null) {
+                cacheado = cacheLocal.anteriorMientrasSeCarga(id);
+            }
+            if (cacheado != null) {
+                productos.put(id, cacheado);
+            } else if (!cacheLocal.ausente(id)) {
+                fueraDeLocal.add(id);
+            }
+        }
+
+        // Las lecturas (y la de cuándo se cargó cada producto) se lanzan a la vez y el cliente de Redis las
+        // encadena en la misma conexión, así que cuestan un viaje de ida y vuelta en lugar de uno por producto
+        List<ProductoDTO> enRedis = List.of();
+        Map<Long, Long> cargadosEn = Map.of();
+        if (!fueraDeLocal.isEmpty()) {
+            var lecturas = Uni.combine().all().unis(
+                            Uni.join()
+                                    .all(fueraDeLocal.stream().map(id -> cache.getOrNull(id, ProductoDTO.class)).toList())
+                                    .andFailFast(),
+                            refresco.cargadosEn(fueraDeLocal))
+                    .asTuple()
+                    .await().indefinitely();
+            enRedis = lecturas.getItem1();
+            cargadosEn = lecturas.getItem2();
+        }
+        List<Long> caducados = new ArrayList<>();
+        for (int i = 0; i < fueraDeLocal.size(); i++) {
+            Long id = fueraDeLocal.get(i);
+            ProductoDTO cacheado = enRedis.get(i);
+            if (cacheado != null) {
+                cacheLocal.aciertoL2();
+                cacheLocal.guardar(id, cacheado, version);
+                productos.put(id, cacheado);
+                if (refresco.caducado(cargadosEn.get(id))) {
+                    refresco.caducadoServido(cargadosEn.get(id));
+                    caducados.add(id);
+                }
+            } else {
+                cacheLocal.falloL2();
+                pendientes.add(id);
             }
+        }
+        if (!caducados.isEmpty()) {
+            refresco.programar(caducados, this::refrescar);
+        }
+
+        if (pendientes.isEmpty()) {
+            return productos;
+        }
 
-            if (response.getStatus() != 200) {
-                throw new RuntimeException("Error consultando producto" +
-                        " con ID " + id + ": status " + response.getStatus() +
-                        " -> " + response.readEntity(String.class));
+        // Los productos que otro carrito ya está pidiendo al catálogo se esperan en lugar de pedirse otra vez
+        Map<Long, ProductoDTO> cargados = cacheLocal.cargas().cargarTodas(pendientes, this::consultarCatalogo);
+        List<Long> sinRespuesta = new ArrayList<>();
+        for (Long id : pendientes) {
+            ProductoDTO producto = cargados.get(id);
+            if (producto == SIN_RESPUESTA) {
+                // No se sabe si existe: ni se guarda ni se recuerda como ausente
+                sinRespuesta.add(id);
+            } else if (producto != null) {
+                productos.put(id, producto);
+                cacheLocal.guardar(id, producto, version);
+            } else {
+                cacheLocal.marcarAusente(id, version);
             }
+        }
+        if (!sinRespuesta.isEmpty()) {
+            // La copia de respaldo puede tener horas: se devuelve, pero no se guarda en ninguna caché
+            productos.putAll(leerRespaldo(sinRespuesta));
+        }
+        return productos;
+    }
 
-            return response.readEntity(ProductoDTO.class);
+    private Map<Long, ProductoDTO> leerRespaldo(List<Long> ids) {
+        try {
+            return respaldo.leer(ids);
+        } catch (RuntimeException e) {
+            // Sin Redis tampoco hay respaldo: esos productos faltan en el mapa, como si no hubieran respondido
+            return Map.of();
         }
     }
 
-    public ProductoDTO fallbackObtenerProductoPorId(Long id) {
-        // Intentar obtener desde caché
-        ProductoDTO cachedProducto = getProductoFromRedis(id);
-        if (cachedProducto != null) {
-            return cachedProducto;
-        } else {
-            throw new WebApplicationException("Producto no disponible actualmente. No es posible obtener el producto con ID " + id,
-                    Response.Status.SERVICE_UNAVAILABLE);
+    // true si el catálogo ha respondido hace poco que el producto no existe, para distinguir en un mapa de
+    // obtenerProductosPorIds los productos borrados de los que no se han podido consultar
+    public boolean inexistente(Long id) {
+        return cacheLocal.ausente(id);
+    }
+
+    // Se ejecuta en el pool de RefrescoProductos. Siempre usa el lote, porque obtenerProductoPorIdAsync
+    // devolvería la misma entrada de producto-cache que se quiere renovar. Llama al catálogo sin pasar por la
+    // tolerancia a fallos de obtenerProductosPorIds, así que con su circuito abierto o a prueba no se refresca:
+    // la entrada se sigue sirviendo y se vuelve a intentar en la siguiente lectura.
+    private void refrescar(List<Long> ids) {
+        if (circuitos.currentState(CIRCUITO_PRODUCTOS) != CircuitBreakerState.CLOSED) {
+            return;
         }
+        long version = cacheLocal.version();
+        cacheLocal.cargas().cargarTodas(ids, this::consultarLote)
+                .forEach((id, producto) -> cacheLocal.guardar(id, producto, version));
     }
 
-    private ProductoDTO getProductoFromRedis(Long id) {
-        String key = "producto-cache:" + id;
+    // Pide los productos al catálogo y los deja en producto-cache y en la copia de respaldo
+    private Map<Long, ProductoDTO> consultarCatalogo(List<Long> pendientes) {
+        if (fanOut) {
+            // obtenerProductoPorIdAsync ya guarda en producto-cache lo que obtiene
+            return consultarEnParalelo(pendientes);
+        }
+        return consultarLote(pendientes);
+    }
 
-        ValueCommands<String, String> valueCommands =
-                redisDataSource.value(String.class, String.class);
+    private Map<Long, ProductoDTO> consultarLote(List<Long> pendientes) {
+        Map<Long, ProductoDTO> productos = new HashMap<>();
+        RedisCache cache = productoCache.as(RedisCache.class);
+        List<ProductoDTO> encontrados = metricasCliente.medir(catalogoApi.obtenerLote(Map.of("ids", pendientes)))
+                .map(response -> {
+                    try (response) {
+                        if (response.getStatus() != 200) {
+                            throw new RuntimeException("Error consultando el lote de productos " + pendientes +
+                                    ": status " + response.getStatus() + " -> " + response.readEntity(String.class));
+                        }
+                        return response.readEntity(new GenericType<List<ProductoDTO>>() {});
+                    }
+                })
+                .await().atMost(timeout);
 
-        String json = valueCommands.get(key);
+        if (encontrados.isEmpty()) {
+            return productos;
+        }
+        for (ProductoDTO producto : encontrados) {
+            productos.put(producto.id(), producto);
+        }
+        Uni.join().all(encontrados.stream().map(producto -> cache.put(producto.id(), producto)).toList())
+                .andFailFast()
+                .await().indefinitely();
+        respaldo.guardar(encontrados);
+        refresco.marcarCargados(productos.keySet());
+        return productos;
+    }
 
-        if (json != null) {
-            try {
-                ObjectMapper mapper = new ObjectMapper();
-                return mapper.readValue(json, ProductoDTO.class);
-            } catch (Exception e) {
-                return null;
+    // Resuelve los productos con como mucho concurrenciaFanOut peticiones simultáneas y un plazo común para
+    // toda la operación. Los que no llegan a tiempo o fallan quedan con SIN_RESPUESTA, de modo que un producto
+    // lento no retrasa ni hace fallar al resto del carrito. Los que el catálogo no conoce no aparecen en el mapa.
+    private Map<Long, ProductoDTO> consultarEnParalelo(List<Long> ids) {
+        Instant limite = Instant.now().plus(plazoFanOut);
+        Map<Long, ProductoDTO> productos = new HashMap<>();
+        Multi.createFrom().iterable(ids)
+                .onItem().transformToUni(id -> Uni.createFrom().deferred(() -> {
+                            Duration restante = Duration.between(Instant.now(), limite);
+                            if (restante.isNegative() || restante.isZero()) {
+                                return Uni.createFrom().item(SIN_RESPUESTA);
+                            }
+                            return obtenerProductoPorIdAsync(id)
+                                    .ifNoItem().after(restante).fail();
+                        })
+                        .map(Optional::ofNullable)
+                        .onFailure().recoverWithItem(Optional.of(SIN_RESPUESTA))
+                        .map(producto -> Map.entry(id, producto)))
+                .merge(concurrenciaFanOut)
+                .filter(entrada -> entrada.getValue().isPresent())
+                .collect().asList()
+                .await().atMost(plazoFanOut.plus(timeout))
+                .forEach(entrada -> productos.put(entrada.getKey(), entrada.getValue().get()));
+        return productos;
+    }
+
+    public Map<Long, ProductoDTO> fallbackObtenerProductosPorIds(Collection<Long> ids) {
+        // Todos los productos en una sola lectura de la copia de respaldo
+        Map<Long, ProductoDTO> productos = respaldo.leer(ids);
+        for (Long id : ids) {
+            if (!productos.containsKey(id)) {
+                throw new WebApplicationException("Producto no disponible actualmente. No es posible obtener el producto con ID " + id,
+                        Response.Status.SERVICE_UNAVAILABLE);
             }
         }
-        return null;
+        return productos;
+    }
+
+    public ProductoDTO fallbackObtenerProductoPorId(Long id) {
+        return fallbackObtenerProductosPorIds(List.of(id)).get(id);
     }
 
-}
\ No newline at end of file
+}
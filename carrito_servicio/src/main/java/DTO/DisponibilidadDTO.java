@@ -0,0 +1,6 @@
+package DTO;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record DisponibilidadDTO(Long productoId, int stock, int disponible) {}
@@ -0,0 +1,4 @@
+package DTO;
+
+// Lo que se guarda en carrito-cache: solo las líneas, los datos del producto se resuelven al leer el carrito
+public record LineaCarritoDTO(Long productoId, int cantidad) {}
@@ -0,0 +1,36 @@
+package Health;
+
+import Cliente.ReplicaCatalogo;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+
+// Solo informa del estado de la réplica del catálogo. Siempre está UP: si no está al día (por ejemplo, con Kafka
+// caído) StockClient no la usa y pide los productos al catálogo, así que el pod puede seguir recibiendo tráfico.
+@Readiness
+@ApplicationScoped
+public class ReplicaCatalogoCheck implements HealthCheck {
+
+    @Inject
+    ReplicaCatalogo replicaCatalogo;
+
+    @Override
+    public HealthCheckResponse call() {
+        if (!replicaCatalogo.habilitada()) {
+            return HealthCheckResponse.named("Replica del catalogo")
+                    .up()
+                    .withData("habilitada", false)
+                    .build();
+        }
+
+        return HealthCheckResponse.named("Replica del catalogo")
+                .up()
+                .withData("alDia", replicaCatalogo.alDia())
+                .withData("cargada", replicaCatalogo.cargada())
+                .withData("lag", replicaCatalogo.lag())
+                .withData("productos", replicaCatalogo.getProductos())
+                .build();
+    }
+}
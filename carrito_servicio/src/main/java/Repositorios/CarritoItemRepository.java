@@ -29,12 +29,6 @@ public class CarritoItemRepository implements PanacheRepository<CarritoItem> {
         return list("userId", userId);
     }
 
-    public List<String> findUserIdsByProductoId(Long productoId) {
-        return find("SELECT DISTINCT c.userId FROM CarritoItem c WHERE c.productoId = ?1", productoId)
-                .project(String.class)
-                .list();
-    }
-
     @Transactional
     public boolean checkDatabaseConnection() {
         try {
@@ -0,0 +1,36 @@
+package Repositorios;
+
+import Entidades.CarritoItem;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+// Dónde se guardan las líneas de los carritos. Se elige con carrito.store: "postgres" (filas CarritoItem, por
+// defecto) o "redis" (un hash por usuario con caducidad). Las líneas siempre se devuelven como CarritoItem;
+// con Redis son objetos sin persistir.
+public interface CarritoStore {
+
+    List<CarritoItem> findByUserId(String userId);
+
+    Optional<CarritoItem> findByUserAndProducto(String userId, Long productoId);
+
+    // Suma la cantidad a la línea (la crea si no existe) y devuelve cómo queda. Admite cantidades negativas
+    // para deshacer una suma; si el total queda a cero o menos la línea se elimina.
+    CarritoItem sumarCantidad(String userId, Long productoId, int cantidad);
+
+    // Fija la cantidad de una línea que ya existe y devuelve cómo queda; vacío si la línea no existe (no se crea).
+    // No parte de una lectura anterior, así que no pisa con un valor viejo una suma que llegue entre medias.
+    // Con cantidad cero o menos la línea se elimina y se devuelve con cantidad 0. Quitar al usuario de
+    // IndiceCarritos le toca a quien llama, igual que con eliminar.
+    Optional<CarritoItem> fijarCantidad(String userId, Long productoId, int cantidad);
+
+    // false si la línea no existía
+    boolean eliminar(String userId, Long productoId);
+
+    void vaciar(String userId);
+
+    // Quita el producto de todos los carritos. userIds son los que lo tienen según IndiceCarritos; Postgres no
+    // los necesita.
+    void eliminarProducto(Long productoId, Collection<String> userIds);
+}
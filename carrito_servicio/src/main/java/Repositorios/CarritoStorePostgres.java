@@ -0,0 +1,83 @@
+package Repositorios;
+
+import Entidades.CarritoItem;
+import io.quarkus.arc.lookup.LookupIfProperty;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@ApplicationScoped
+@LookupIfProperty(name = "carrito.store", stringValue = "postgres", lookupIfMissing = true)
+public class CarritoStorePostgres implements CarritoStore {
+
+    @Inject
+    CarritoItemRepository carritoItemRepository;
+
+    @Override
+    public List<CarritoItem> findByUserId(String userId) {
+        return carritoItemRepository.findByUserId(userId);
+    }
+
+    @Override
+    public Optional<CarritoItem> findByUserAndProducto(String userId, Long productoId) {
+        return carritoItemRepository.findByUserAndProducto(userId, productoId);
+    }
+
+    @Override
+    public CarritoItem sumarCantidad(String userId, Long productoId, int cantidad) {
+        Optional<CarritoItem> existente = carritoItemRepository.findByUserAndProducto(userId, productoId);
+        CarritoItem item = existente.orElse(null);
+        if (item == null) {
+            item = new CarritoItem();
+            item.setUserId(userId);
+            item.setProductoId(productoId);
+            item.setCantidad(cantidad);
+        } else {
+            item.setCantidad(item.getCantidad() + cantidad);
+        }
+        guardarOBorrar(item, existente.isPresent());
+        return item;
+    }
+
+    @Override
+    public Optional<CarritoItem> fijarCantidad(String userId, Long productoId, int cantidad) {
+        Optional<CarritoItem> item = carritoItemRepository.findByUserAndProducto(userId, productoId);
+        item.ifPresent(linea -> {
+            linea.setCantidad(Math.max(cantidad, 0));
+            guardarOBorrar(linea, true);
+        });
+        return item;
+    }
+
+    @Override
+    public boolean eliminar(String userId, Long productoId) {
+        Optional<CarritoItem> item = carritoItemRepository.findByUserAndProducto(userId, productoId);
+        if (item.isEmpty()) {
+            return false;
+        }
+        carritoItemRepository.delete(item.get());
+        return true;
+    }
+
+    @Override
+    public void vaciar(String userId) {
+        carritoItemRepository.delete("userId", userId);
+    }
+
+    @Override
+    public void eliminarProducto(Long productoId, Collection<String> userIds) {
+        carritoItemRepository.delete("productoId", productoId);
+    }
+
+    // Igual que en Redis, una línea a cero o menos no se guarda
+    private void guardarOBorrar(CarritoItem item, boolean existia) {
+        if (item.getCantidad() > 0) {
+            carritoItemRepository.persist(item);
+        } else if (existia) {
+            carritoItemRepository.delete(item);
+        }
+    }
+}
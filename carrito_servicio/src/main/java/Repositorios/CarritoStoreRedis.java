@@ -0,0 +1,120 @@
+package Repositorios;
+
+import Entidades.CarritoItem;
+import io.quarkus.arc.lookup.LookupIfProperty;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.hash.HashCommands;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Un hash por usuario (carrito:{userId}) con productoId -> cantidad. Las sumas y los cambios de cantidad son
+// scripts Lua (SUMAR, FIJAR) que Redis ejecuta de una vez, así que dos peticiones a la vez sobre la misma línea
+// no se pisan, y cada escritura renueva la caducidad del carrito (carrito.redis.ttl). No participa en las transacciones JTA: lo que se escribe aquí no se deshace si
+// después falla la base de datos.
+@ApplicationScoped
+@LookupIfProperty(name = "carrito.store", stringValue = "redis")
+public class CarritoStoreRedis implements CarritoStore {
+
+    private static final String PREFIJO = "carrito:";
+
+    // HINCRBY y, en el mismo paso, borra la línea si queda a cero o menos; si no, renueva la caducidad.
+    // KEYS[1] = carrito, ARGV = productoId, cantidad, ttl en segundos. Devuelve el total.
+    private static final String SUMAR = """
+            local total = redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])
+            if total <= 0 then
+                redis.call('HDEL', KEYS[1], ARGV[1])
+            else
+                redis.call('EXPIRE', KEYS[1], ARGV[3])
+            end
+            return total
+            """;
+
+    // HSET solo si la línea existe, sin crearla nunca. Mismos argumentos que SUMAR; devuelve 1 si la ha cambiado.
+    private static final String FIJAR = """
+            if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+                return 0
+            end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('EXPIRE', KEYS[1], ARGV[3])
+            return 1
+            """;
+
+    @Inject
+    public RedisDataSource redisDataSource;
+
+    @ConfigProperty(name = "carrito.redis.ttl", defaultValue = "7D")
+    public Duration ttl;
+
+    @Override
+    public List<CarritoItem> findByUserId(String userId) {
+        Map<String, Long> lineas = hash().hgetall(PREFIJO + userId);
+        List<CarritoItem> items = new ArrayList<>();
+        lineas.forEach((productoId, cantidad) -> items.add(item(userId, Long.valueOf(productoId), cantidad)));
+        return items;
+    }
+
+    @Override
+    public Optional<CarritoItem> findByUserAndProducto(String userId, Long productoId) {
+        Long cantidad = hash().hget(PREFIJO + userId, String.valueOf(productoId));
+        return cantidad == null ? Optional.empty() : Optional.of(item(userId, productoId, cantidad));
+    }
+
+    @Override
+    public CarritoItem sumarCantidad(String userId, Long productoId, int cantidad) {
+        long total = ejecutar(SUMAR, userId, productoId, cantidad);
+        return item(userId, productoId, total);
+    }
+
+    @Override
+    public Optional<CarritoItem> fijarCantidad(String userId, Long productoId, int cantidad) {
+        if (cantidad <= 0) {
+            return eliminar(userId, productoId) ? Optional.of(item(userId, productoId, 0)) : Optional.empty();
+        }
+        if (ejecutar(FIJAR, userId, productoId, cantidad) == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(item(userId, productoId, cantidad));
+    }
+
+    @Override
+    public boolean eliminar(String userId, Long productoId) {
+        return hash().hdel(PREFIJO + userId, String.valueOf(productoId)) > 0;
+    }
+
+    @Override
+    public void vaciar(String userId) {
+        redisDataSource.key().del(PREFIJO + userId);
+    }
+
+    @Override
+    public void eliminarProducto(Long productoId, Collection<String> userIds) {
+        for (String userId : userIds) {
+            hash().hdel(PREFIJO + userId, String.valueOf(productoId));
+        }
+    }
+
+    private HashCommands<String, String, Long> hash() {
+        return redisDataSource.hash(Long.class);
+    }
+
+    private long ejecutar(String script, String userId, Long productoId, int cantidad) {
+        return redisDataSource.execute("EVAL", script, "1", PREFIJO + userId,
+                String.valueOf(productoId), String.valueOf(cantidad), String.valueOf(ttl.toSeconds())).toLong();
+    }
+
+    private static CarritoItem item(String userId, Long productoId, long cantidad) {
+        CarritoItem item = new CarritoItem();
+        item.setUserId(userId);
+        item.setProductoId(productoId);
+        item.setCantidad((int) cantidad);
+        return item;
+    }
+}
@@ -1,5 +1,6 @@
 package Servicios;
 
+import Cliente.CacheLocalProductos;
 import Cliente.StockClient;
 import DTO.*;
 import Entidades.CarritoItem;
@@ -7,7 +8,7 @@ import Entidades.LineaPago;
 import Entidades.OrdenPago;
 import Entidades.OutboxEvent;
 import DTO.ProductEventDTO;
-import Repositorios.CarritoItemRepository;
+import Repositorios.CarritoStore;
 import Repositorios.OrdenPagoRepository;
 import Repositorios.OutboxEventRepository;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -17,7 +18,9 @@ import com.stripe.model.PaymentIntent;
 import io.quarkus.cache.CacheInvalidate;
 import io.quarkus.cache.CacheKey;
 import io.quarkus.cache.CacheResult;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
 import jakarta.inject.Inject;
 import jakarta.json.bind.JsonbBuilder;
 import jakarta.transaction.Transactional;
@@ -36,8 +39,11 @@ import java.util.stream.Collectors;
 @ApplicationScoped
 public class CarritoService {
 
+    // Ver CarritoStore: se resuelve según carrito.store
     @Inject
-    CarritoItemRepository carritoItemRepository;
+    Instance<CarritoStore> carritoStores;
+
+    private CarritoStore carritoStore;
 
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CarritoService.class);
@@ -54,19 +60,32 @@ public class CarritoService {
     @Inject
     public StockClient stockClient;
 
+    @Inject
+    CacheLocalProductos cacheLocalProductos;
+
+    @Inject
+    IndiceCarritos indiceCarritos;
+
+    @PostConstruct
+    void init() {
+        carritoStore = carritoStores.get();
+    }
+
     @Transactional
     public OrdenPago iniciarPago(String userId, String direccion, String telefono, String jwt) {
-        List<CarritoItem> carrito = carritoItemRepository.findByUserId(userId);
+        List<CarritoItem> carrito = carritoStore.findByUserId(userId);
         if (carrito.isEmpty()) {
             throw new WebApplicationException("El carrito está vacío", 400);
         }
 
         // Obtener precios actualizados de los productos
+        Map<Long, ProductoDTO> productos = stockClient.obtenerProductosPorIds(
+                carrito.stream().map(CarritoItem::getProductoId).toList());
         Map<Long, BigDecimal> precios = carrito.stream()
                 .collect(Collectors.toMap(
                         item -> item.getProductoId(),
                         item -> {
-                            ProductoDTO producto = stockClient.obtenerProductoPorId(item.getProductoId());
+                            ProductoDTO producto = productos.get(item.getProductoId());
                             if (producto == null) {
                                 throw new WebApplicationException("Producto no encontrado: " + item.getProductoId(), 404);
                             }
@@ -85,8 +104,6 @@ public class CarritoService {
                 .map(item -> precios.get(item.getProductoId()).multiply(BigDecimal.valueOf(item.getCantidad())))
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
 
-        stockClient.reservarStock(productosAReservar, jwt);
-
         List<LineaPago> lineas = carrito.stream()
                 .map(item -> new LineaPago(
                         item.getProductoId(),
@@ -104,6 +121,10 @@ public class CarritoService {
         orden.setItemsComprados(lineas);
         ordenPagoRepository.persist(orden);
 
+        // La orden se guarda antes para que la reserva quede asociada a su ID; si la reserva falla, la
+        // transacción se deshace y la orden no llega a existir
+        stockClient.reservarStock(productosAReservar, orden.getId(), jwt);
+
         if(orden.getMontoTotal().compareTo(BigDecimal.ZERO) == 0) {
             orden.setEstado("PAGADO");
             try {
@@ -156,7 +177,9 @@ public class CarritoService {
         outboxRepo.persist(evt);
 
         orden.setEstado("COMPLETADO");
-        carritoItemRepository.delete("userId", orden.getUserId());
+        carritoStore.vaciar(orden.getUserId());
+        indiceCarritos.quitar(orden.getUserId(), carrito.stream().map(LineaPago::getProductoId).toList());
+        invalidarCarritoUsuario(orden.getUserId());
     }
 
     @Transactional
@@ -228,29 +251,25 @@ public class CarritoService {
             throw new WebApplicationException("El producto no existe", Response.Status.NOT_FOUND);
         }
 
-        // Validar stock disponible
-        if (producto.stock() < cantidad) {
+        // Validar stock disponible. El stock del producto puede venir de una caché o de la réplica, así que se
+        // pregunta al catálogo
+        Integer disponible = stockClient.obtenerDisponible(productoId);
+        if (disponible == null) {
+            throw new WebApplicationException("El producto no existe", Response.Status.NOT_FOUND);
+        }
+        if (disponible < cantidad) {
             throw new WebApplicationException("Stock insuficiente para el producto: " + producto.nombre(), 400);
         }
 
-        // Verificar si el producto ya está en el carrito del usuario
-        Optional<CarritoItem> itemExistente = carritoItemRepository.findByUserAndProducto(userId, productoId);
-
-        CarritoItem item;
-        if (itemExistente.isPresent()) {
-            item = itemExistente.get();
-            item.setCantidad(item.getCantidad()+cantidad);
-            if (item.getCantidad() > producto.stock()) {
-                throw new WebApplicationException("Stock insuficiente para el producto: " + producto.nombre(), 400);
-            }
-            carritoItemRepository.persist(item);
-        } else {
-            item = new CarritoItem();
-            item.setUserId(userId);
-            item.setProductoId(productoId);
-            item.setCantidad(cantidad);
-            carritoItemRepository.persist(item);
+        // Se suma a lo que ya hubiera en el carrito; si se pasa del stock se deshace la suma (en Postgres también
+        // lo deshace el rollback, en Redis no)
+        CarritoItem item = carritoStore.sumarCantidad(userId, productoId, cantidad);
+        if (item.getCantidad() > disponible) {
+            carritoStore.sumarCantidad(userId, productoId, -cantidad);
+            throw new WebApplicationException("Stock insuficiente para el producto: " + producto.nombre(), 400);
         }
+        // También si ya estaba, por los carritos anteriores al índice
+        indiceCarritos.agregar(productoId, userId);
 
         return new CarritoItemDetalleDTO(
                 item.getProductoId(),
@@ -261,30 +280,102 @@ public class CarritoService {
         );
     }
 
-    @Transactional
-    @CacheResult(cacheName = "carrito-cache")
+    // En carrito-cache solo están las líneas; nombre, precio e imagen se resuelven en cada lectura (normalmente
+    // desde la réplica o la copia local del catálogo), así que un cambio de producto no invalida ningún carrito
     public List<CarritoItemDetalleDTO> obtenerCarrito(String userId) {
         LOGGER.info("Obteniendo carrito para el usuario: {}", userId);
-        List<CarritoItem> carrito =  carritoItemRepository.findByUserId(userId);
+        List<LineaCarritoDTO> lineas = obtenerLineas(userId);
         List<CarritoItemDetalleDTO> carritoDetalles = new ArrayList<>();
-        for (CarritoItem item : carrito) {
-            ProductoDTO producto = stockClient.obtenerProductoPorId(item.getProductoId());
+        if (lineas.isEmpty()) {
+            return carritoDetalles;
+        }
+        Map<Long, ProductoDTO> productos = stockClient.obtenerProductosPorIds(
+                lineas.stream().map(LineaCarritoDTO::productoId).toList());
+        // Un producto que falta puede estar borrado o no haber respondido a tiempo (fan-out); solo lo primero
+        // justifica recargar las líneas
+        Map<Long, ProductoDTO> encontrados = productos;
+        if (lineas.stream().anyMatch(linea -> !encontrados.containsKey(linea.productoId())
+                && stockClient.inexistente(linea.productoId()))) {
+            // Las líneas cacheadas pueden incluir un producto ya borrado que el índice no tenía
+            invalidarCarritoUsuario(userId);
+            lineas = obtenerLineas(userId);
+            Map<Long, ProductoDTO> recargados = stockClient.obtenerProductosPorIds(
+                    lineas.stream().map(LineaCarritoDTO::productoId).toList());
+            productos = recargados;
+            // Con Redis nadie más borra esas líneas: si el producto sigue sin existir se quitan aquí
+            List<Long> inexistentes = lineas.stream()
+                    .map(LineaCarritoDTO::productoId)
+                    .filter(id -> !recargados.containsKey(id) && stockClient.inexistente(id))
+                    .toList();
+            if (!inexistentes.isEmpty()) {
+                eliminarLineas(userId, inexistentes);
+                lineas = lineas.stream().filter(linea -> !inexistentes.contains(linea.productoId())).toList();
+            }
+        }
+        // El stock de los productos puede venir de una caché; el disponible actual se pide aparte, en una llamada
+        Map<Long, Integer> disponibles = stockClient.obtenerDisponibles(
+                lineas.stream().map(LineaCarritoDTO::productoId).toList());
+        boolean sinResolver = false;
+        for (LineaCarritoDTO linea : lineas) {
+            ProductoDTO producto = productos.get(linea.productoId());
             if (producto == null) {
-                throw new WebApplicationException("Producto no encontrado: " + item.getProductoId(), Response.Status.NOT_FOUND);
+                // El catálogo no ha respondido por este producto: la línea se queda, pero no se muestra ahora
+                sinResolver = true;
+                continue;
+            }
+            int cantidad = linea.cantidad();
+            Integer disponible = disponibles.get(linea.productoId());
+            if (disponible != null && cantidad > disponible) {
+                // Ajustar cantidad al stock disponible
+                cantidad = Math.max(disponible, 0);
+                ajustarCantidad(userId, linea.productoId(), cantidad);
+                if (cantidad == 0) {
+                    // Sin stock la línea se ha quitado del carrito
+                    continue;
+                }
             }
-            item.setCantidad(Math.min(item.getCantidad(), producto.stock())); // Ajustar cantidad al stock disponible
             CarritoItemDetalleDTO detalle = new CarritoItemDetalleDTO(
-                    item.getProductoId(),
+                    linea.productoId(),
                     producto.nombre(),
                     producto.imagenUrl(),
-                    item.getCantidad(),
+                    cantidad,
                     producto.precio()
             );
             carritoDetalles.add(detalle);
         }
+        if (carritoDetalles.isEmpty() && sinResolver) {
+            // Ninguna línea se ha podido resolver: mejor un error que un carrito que parece vacío
+            throw new WebApplicationException("Productos no disponibles actualmente. Intente más tarde.",
+                    Response.Status.SERVICE_UNAVAILABLE);
+        }
         return carritoDetalles;
     }
 
+    @Transactional
+    @CacheResult(cacheName = "carrito-cache")
+    public List<LineaCarritoDTO> obtenerLineas(String userId) {
+        return carritoStore.findByUserId(userId).stream()
+                .map(item -> new LineaCarritoDTO(item.getProductoId(), item.getCantidad()))
+                .toList();
+    }
+
+    @Transactional
+    @CacheInvalidate(cacheName = "carrito-cache")
+    public void ajustarCantidad(@CacheKey String userId, Long productoId, int cantidad) {
+        carritoStore.fijarCantidad(userId, productoId, cantidad);
+        if (cantidad <= 0) {
+            // El store ya ha quitado la línea
+            indiceCarritos.quitar(userId, List.of(productoId));
+        }
+    }
+
+    @Transactional
+    @CacheInvalidate(cacheName = "carrito-cache")
+    public void eliminarLineas(@CacheKey String userId, List<Long> productoIds) {
+        productoIds.forEach(productoId -> carritoStore.eliminar(userId, productoId));
+        indiceCarritos.quitar(userId, productoIds);
+    }
+
 
     @Incoming("productos-in")
     @Transactional
@@ -295,7 +386,10 @@ public class CarritoService {
         if ("DELETED".equals(event.getAction())) {
             eliminarProductoDeCarritos(event.getProductId());
         } else if ("UPDATED".equals(event.getAction())) {
+            cacheLocalProductos.olvidarAusente(event.getProductId());
             invalidarCacheProducto(event.getProductId());
+        } else if ("CREATED".equals(event.getAction())) {
+            cacheLocalProductos.olvidarAusente(event.getProductId());
         } else {
             LOGGER.warn("Acción desconocida: " + event.getAction());
         }
@@ -308,71 +402,60 @@ public class CarritoService {
 
     @Transactional
     public void eliminarProductoDeCarritos(long productId) {
-        List<String> userIds = carritoItemRepository.findUserIdsByProductoId(productId);
+        Set<String> userIds = indiceCarritos.retirarProducto(productId);
 
-        carritoItemRepository.delete("productoId", productId);
+        carritoStore.eliminarProducto(productId, userIds);
 
-        for (String userId : userIds) {
-            invalidarCarritoUsuario(userId);
-        }
+        indiceCarritos.invalidarCarritos(userIds);
     }
 
     @CacheInvalidate(cacheName = "carrito-cache")
     public void invalidarCarritoUsuario(@CacheKey String userId) {}
 
+    // Los carritos cacheados no guardan datos del producto, así que no hay que invalidar ninguno
     @CacheInvalidate(cacheName = "producto-cache")
-    public void invalidarCacheProducto(@CacheKey Long id) {
-        List<String> userIds = carritoItemRepository.findUserIdsByProductoId(id);
-        for (String userId : userIds) {
-            invalidarCarritoUsuario(userId);
-        }
-    }
+    public void invalidarCacheProducto(@CacheKey Long id) {}
 
     @Transactional
     @CacheInvalidate(cacheName = "carrito-cache")
     public void eliminarProducto(@CacheKey String userId, Long productoId) {
-        Optional<CarritoItem> item = carritoItemRepository.findByUserAndProducto(userId, productoId);
-        if (item.isEmpty()) {
+        if (!carritoStore.eliminar(userId, productoId)) {
             throw new WebApplicationException("Producto no encontrado en el carrito", Response.Status.NOT_FOUND);
         }
-        carritoItemRepository.delete(item.get());
+        indiceCarritos.quitar(userId, List.of(productoId));
     }
 
     @Transactional
     @CacheInvalidate(cacheName = "carrito-cache")
     public void vaciarCarrito(@CacheKey String userId) {
-        carritoItemRepository.delete("userId", userId);
+        List<Long> productoIds = carritoStore.findByUserId(userId).stream()
+                .map(CarritoItem::getProductoId)
+                .toList();
+        carritoStore.vaciar(userId);
+        indiceCarritos.quitar(userId, productoIds);
     }
 
     @Transactional
     @CacheInvalidate(cacheName = "carrito-cache")
     public CarritoItem actualizarCantidadProducto(@CacheKey String userId, Long productoId, int nuevaCantidad) {
-        Optional<CarritoItem> item = carritoItemRepository.findByUserAndProducto(userId, productoId);
-        if (item.isEmpty()) {
-            throw new WebApplicationException("Producto no encontrado en el carrito", Response.Status.NOT_FOUND);
-        }
-
-        CarritoItem carritoItem = item.get();
-
         // Validar que la nueva cantidad sea mayor a 0
         if (nuevaCantidad <= 0) {
             throw new WebApplicationException("La cantidad debe ser mayor a 0", Response.Status.BAD_REQUEST);
         }
 
-        // Validar stock disponible
-        ProductoDTO producto = stockClient.obtenerProductoPorId(productoId);
-        if (producto == null) {
+        // Validar stock disponible; no hace falta el resto del producto
+        Integer disponible = stockClient.obtenerDisponible(productoId);
+        if (disponible == null) {
             throw new WebApplicationException("El producto no existe", Response.Status.NOT_FOUND);
         }
 
-        if (producto.stock() < nuevaCantidad) {
-            throw new WebApplicationException("Stock insuficiente para el producto: " + producto.nombre(), Response.Status.BAD_REQUEST);
+        if (disponible < nuevaCantidad) {
+            throw new WebApplicationException("Stock insuficiente para el producto: " + productoId, Response.Status.BAD_REQUEST);
         }
 
-        carritoItem.setCantidad(nuevaCantidad);
-        carritoItemRepository.persist(carritoItem);
-
-        return carritoItem;
+        // Sin leer la línea antes: si no está en el carrito no se crea
+        return carritoStore.fijarCantidad(userId, productoId, nuevaCantidad)
+                .orElseThrow(() -> new WebApplicationException("Producto no encontrado en el carrito", Response.Status.NOT_FOUND));
     }
 }
 
@@ -0,0 +1,83 @@
+package Servicios;
+
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+
+// Índice inverso producto -> usuarios que lo tienen en el carrito, en un set de Redis por producto
+// (carrito:producto:{id}). Sirve para invalidar solo las líneas cacheadas de esos usuarios cuando un producto
+// se borra, sin recorrer CarritoItem. Si el índice se queda corto (un fallo de Redis, carritos de antes del
+// índice), obtenerCarrito detecta el producto que falta y recarga las líneas de ese usuario.
+//
+// Cada set caduca con carrito.redis.ttl desde el último carrito que añadió el producto, como los carritos de
+// CarritoStoreRedis, para que no se queden para siempre los usuarios de carritos ya caducados.
+@ApplicationScoped
+public class IndiceCarritos {
+
+    private static final String PREFIJO = "carrito:producto:";
+
+    @Inject
+    public RedisDataSource redisDataSource;
+
+    @Inject
+    @CacheName("carrito-cache")
+    public Cache carritoCache;
+
+    @ConfigProperty(name = "carrito.redis.ttl", defaultValue = "7D")
+    public Duration ttl;
+
+    public void agregar(Long productoId, String userId) {
+        try {
+            String clave = PREFIJO + productoId;
+            redisDataSource.set(String.class).sadd(clave, userId);
+            redisDataSource.key().expire(clave, ttl);
+        } catch (Exception e) {
+            System.err.println("Error indexando el producto " + productoId + " del carrito de " + userId + ": " + e.getMessage());
+        }
+    }
+
+    public void quitar(String userId, Collection<Long> productoIds) {
+        try {
+            for (Long productoId : productoIds) {
+                redisDataSource.set(String.class).srem(PREFIJO + productoId, userId);
+            }
+        } catch (Exception e) {
+            System.err.println("Error quitando del índice el carrito de " + userId + ": " + e.getMessage());
+        }
+    }
+
+    // Devuelve los usuarios que tenían el producto y borra su entrada del índice
+    public Set<String> retirarProducto(Long productoId) {
+        String clave = PREFIJO + productoId;
+        try {
+            Set<String> userIds = redisDataSource.set(String.class).smembers(clave);
+            redisDataSource.key().del(clave);
+            return userIds;
+        } catch (Exception e) {
+            System.err.println("Error leyendo el índice del producto " + productoId + ": " + e.getMessage());
+            return Set.of();
+        }
+    }
+
+    // Todas las invalidaciones se lanzan a la vez y viajan juntas por la conexión de Redis
+    public void invalidarCarritos(Collection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        try {
+            Uni.join().all(userIds.stream().map(userId -> carritoCache.invalidate(userId)).toList())
+                    .andCollectFailures()
+                    .await().indefinitely();
+        } catch (Exception e) {
+            System.err.println("Error invalidando " + userIds.size() + " carritos: " + e.getMessage());
+        }
+    }
+}
@@ -18,6 +18,7 @@ import org.mockito.Mockito;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.*;
@@ -41,6 +42,7 @@ public class CarritoResourceTest {
         // Mock del cliente de producto
         ProductoDTO productoMock = new ProductoDTO(1L, "Producto Test", BigDecimal.valueOf(100), 10,"url");
         when(stockClient.obtenerProductoPorId(1L)).thenReturn(productoMock);
+        when(stockClient.obtenerDisponible(1L)).thenReturn(10);
         // Agregar producto
         AgregarProductoRequest request = new AgregarProductoRequest();
         request.productoId = 1L;
@@ -68,7 +70,7 @@ public class CarritoResourceTest {
         item.setCantidad(2);
 
         when(carritoItemRepository.findByUserId("user")).thenReturn(List.of(item));
-        when(stockClient.obtenerProductoPorId(item.getProductoId())).thenReturn(new ProductoDTO(item.getProductoId(), "Producto Test", BigDecimal.valueOf(100), 10,"url"));
+        when(stockClient.obtenerProductosPorIds(List.of(item.getProductoId()))).thenReturn(Map.of(item.getProductoId(), new ProductoDTO(item.getProductoId(), "Producto Test", BigDecimal.valueOf(100), 10,"url")));
 
         // Realiza la solicitud y verifica la respuesta
         given()
@@ -119,8 +121,7 @@ public class CarritoResourceTest {
     @TestSecurity(user = "user", roles = {"user"})
     public void testActualizarCantidad() {
         // Mock del cliente de producto
-        ProductoDTO productoMock = new ProductoDTO(1L, "Producto Test", BigDecimal.valueOf(100), 10,"url");
-        when(stockClient.obtenerProductoPorId(1L)).thenReturn(productoMock);
+        when(stockClient.obtenerDisponible(1L)).thenReturn(10);
 
         // Mock del repositorio para la búsqueda
         CarritoItem item = new CarritoItem();
@@ -157,8 +158,8 @@ public class CarritoResourceTest {
 
         IniciarPagoRequest requestBody = new IniciarPagoRequest("2123456789","Calle Test");
 
-        when(stockClient.obtenerProductoPorId(item.getProductoId())).thenReturn(new ProductoDTO(item.getProductoId(), "Producto Test", BigDecimal.valueOf(100), 10,"url"));
-        Mockito.doNothing().when(stockClient).reservarStock(Mockito.anyMap(), Mockito.anyString());
+        when(stockClient.obtenerProductosPorIds(List.of(item.getProductoId()))).thenReturn(Map.of(item.getProductoId(), new ProductoDTO(item.getProductoId(), "Producto Test", BigDecimal.valueOf(100), 10,"url")));
+        Mockito.doNothing().when(stockClient).reservarStock(Mockito.anyMap(), Mockito.any(), Mockito.anyString());
         Mockito.doNothing().when(ordenPagoRepository).persist(Mockito.any(OrdenPago.class));
 
         // Realizar la solicitud
@@ -203,8 +204,8 @@ public class CarritoResourceTest {
 
         IniciarPagoRequest requestBody = new IniciarPagoRequest("2123456789","Calle Test");
 
-        when(stockClient.obtenerProductoPorId(item.getProductoId())).thenReturn(new ProductoDTO(item.getProductoId(), "Producto Test", BigDecimal.valueOf(100), 10,"url"));
-        Mockito.doNothing().when(stockClient).reservarStock(Mockito.anyMap(), Mockito.anyString());
+        when(stockClient.obtenerProductosPorIds(List.of(item.getProductoId()))).thenReturn(Map.of(item.getProductoId(), new ProductoDTO(item.getProductoId(), "Producto Test", BigDecimal.valueOf(100), 10,"url")));
+        Mockito.doNothing().when(stockClient).reservarStock(Mockito.anyMap(), Mockito.any(), Mockito.anyString());
         Mockito.doNothing().when(ordenPagoRepository).persist(Mockito.any(OrdenPago.class));
 
         // Realizar la solicitud
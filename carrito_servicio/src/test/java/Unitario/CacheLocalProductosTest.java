@@ -0,0 +1,67 @@
+package Unitario;
+
+import Cliente.CacheLocalProductos;
+import Cliente.StockClient;
+import DTO.ProductEventDTO;
+import Servicios.CarritoService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class CacheLocalProductosTest {
+
+    @Inject
+    CacheLocalProductos cacheLocal;
+
+    @Inject
+    CarritoService carritoService;
+
+    @Inject
+    StockClient stockClient;
+
+    @Test
+    void marcarAusente_seRecuerdaElIdInexistente() {
+        cacheLocal.marcarAusente(9001L, cacheLocal.version());
+
+        assertTrue(cacheLocal.ausente(9001L));
+        assertFalse(cacheLocal.ausente(9002L));
+    }
+
+    @Test
+    void marcarAusente_noSeGuardaSiHuboUnaInvalidacionDuranteLaCarga() {
+        long versionLeida = cacheLocal.version();
+        // El producto se crea mientras se consultaba el catálogo
+        cacheLocal.olvidarAusente(9003L);
+
+        cacheLocal.marcarAusente(9003L, versionLeida);
+
+        assertFalse(cacheLocal.ausente(9003L));
+    }
+
+    @Test
+    void eventoCreated_olvidaElAusente() throws JsonProcessingException {
+        cacheLocal.marcarAusente(9004L, cacheLocal.version());
+        assertTrue(cacheLocal.ausente(9004L));
+
+        String evento = new ObjectMapper().writeValueAsString(new ProductEventDTO(9004L, "CREATED", null));
+        carritoService.procesarEventoProducto(evento);
+
+        assertFalse(cacheLocal.ausente(9004L));
+    }
+
+    @Test
+    void obtenerProductosPorIds_noVuelveAPedirLosAusentes() {
+        cacheLocal.marcarAusente(9005L, cacheLocal.version());
+
+        // Sin nada que consultar no se llega a Redis ni al catálogo
+        assertTrue(stockClient.obtenerProductosPorIds(List.of(9005L)).isEmpty());
+        assertTrue(stockClient.inexistente(9005L));
+    }
+}
@@ -0,0 +1,116 @@
+package Unitario;
+
+import Cliente.CargaUnica;
+import org.eclipse.microprofile.metrics.Counter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CargaUnicaTest {
+
+    Counter agrupadas;
+
+    CargaUnica<Long, String> cargas;
+
+    @BeforeEach
+    void setup() {
+        agrupadas = Mockito.mock(Counter.class);
+        cargas = new CargaUnica<>(agrupadas);
+    }
+
+    @Test
+    void cargarTodas_soloCargaLasClavesQueNadieEstaCargando() throws Exception {
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        List<List<Long>> llamadas = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Map<Long, String>> primera = CompletableFuture.supplyAsync(() ->
+                cargas.cargarTodas(List.of(1L, 2L), ids -> {
+                    llamadas.add(new ArrayList<>(ids));
+                    empezada.countDown();
+                    await(liberar);
+                    return nombres(ids);
+                }));
+        assertTrue(empezada.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Map<Long, String>> segunda = CompletableFuture.supplyAsync(() ->
+                cargas.cargarTodas(List.of(2L, 3L), ids -> {
+                    llamadas.add(new ArrayList<>(ids));
+                    return nombres(ids);
+                }));
+        Mockito.verify(agrupadas, Mockito.timeout(5000)).inc();
+        liberar.countDown();
+
+        assertEquals(Map.of(1L, "producto 1", 2L, "producto 2"), primera.get(5, TimeUnit.SECONDS));
+        assertEquals(Map.of(2L, "producto 2", 3L, "producto 3"), segunda.get(5, TimeUnit.SECONDS));
+        // La clave 2 solo se ha pedido al cargador una vez
+        assertEquals(List.of(List.of(1L, 2L), List.of(3L)), llamadas.stream()
+                .map(ids -> ids.stream().sorted().toList()).toList());
+        assertFalse(cargas.cargando(1L) || cargas.cargando(2L) || cargas.cargando(3L));
+    }
+
+    @Test
+    void cargarTodas_lasClavesQueNoEncuentraElCargadorQuedanFuera() {
+        Map<Long, String> resultado = cargas.cargarTodas(List.of(1L, 2L, 1L), ids -> Map.of(1L, "producto 1"));
+
+        assertEquals(Map.of(1L, "producto 1"), resultado);
+        assertFalse(cargas.cargando(2L));
+    }
+
+    @Test
+    void cargarTodas_elErrorLlegaATodosLosQueEsperaban() throws Exception {
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+
+        CompletableFuture<Map<Long, String>> primera = CompletableFuture.supplyAsync(() ->
+                cargas.cargarTodas(List.of(1L), ids -> {
+                    empezada.countDown();
+                    await(liberar);
+                    throw new IllegalStateException("catálogo caído");
+                }));
+        assertTrue(empezada.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Map<Long, String>> segunda = CompletableFuture.supplyAsync(() ->
+                cargas.cargarTodas(List.of(1L), CargaUnicaTest::nombres));
+        Mockito.verify(agrupadas, Mockito.timeout(5000)).inc();
+        liberar.countDown();
+
+        Exception errorPrimera = assertThrows(Exception.class, () -> primera.get(5, TimeUnit.SECONDS));
+        Exception errorSegunda = assertThrows(Exception.class, () -> segunda.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, errorPrimera.getCause());
+        assertInstanceOf(IllegalStateException.class, errorSegunda.getCause());
+    }
+
+    @Test
+    void cargarTodas_lasClavesSeLiberanAunqueFalle() {
+        assertThrows(IllegalStateException.class, () -> cargas.cargarTodas(List.of(1L, 2L), ids -> {
+            throw new IllegalStateException("catálogo caído");
+        }));
+        assertFalse(cargas.cargando(1L) || cargas.cargando(2L));
+
+        assertEquals(Map.of(1L, "producto 1"), cargas.cargarTodas(List.of(1L), CargaUnicaTest::nombres));
+        Mockito.verify(agrupadas, Mockito.never()).inc();
+    }
+
+    private static Map<Long, String> nombres(List<Long> ids) {
+        return ids.stream().collect(Collectors.toMap(id -> id, id -> "producto " + id));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -12,11 +12,13 @@ import Repositorios.CarritoItemRepository;
 import Repositorios.OrdenPagoRepository;
 import Repositorios.OutboxEventRepository;
 import Servicios.CarritoService;
+import Servicios.IndiceCarritos;
 import Servicios.StripeService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.stripe.exception.StripeException;
 import com.stripe.model.PaymentIntent;
+import io.quarkus.redis.datasource.RedisDataSource;
 import io.quarkus.test.InjectMock;
 import io.quarkus.test.TestTransaction;
 import io.quarkus.test.junit.QuarkusTest;
@@ -26,6 +28,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
@@ -56,6 +59,12 @@ public class CarritoServiceTest {
     @InjectMock
     OutboxEventRepository outboxEventRepository;
 
+    @Inject
+    IndiceCarritos indiceCarritos;
+
+    @Inject
+    RedisDataSource redisDataSource;
+
     @BeforeEach
     public void setup() {
         System.setProperty("test.env", "true");
@@ -79,9 +88,8 @@ public class CarritoServiceTest {
         mockIntent.setId("pi_123");
 
         Mockito.when(carritoItemRepository.findByUserId(userId)).thenReturn(carrito);
-        Mockito.when(stockClient.obtenerProductoPorId(1L)).thenReturn(productoDTO);
+        Mockito.when(stockClient.obtenerProductosPorIds(List.of(1L))).thenReturn(Map.of(1L, productoDTO));
         //Mockito.when(stockClient.reservarStock(Map.of(1L, 2))).thenReturn(Response.ok().build());
-        Mockito.when(stockClient.obtenerProductoPorId(Mockito.anyLong())).thenReturn(productoDTO);
         Mockito.when(stripeService.crearPago(Mockito.any())).thenReturn(mockIntent);
 
         OrdenPago orden = carritoService.iniciarPago(userId, "Calle Falsa", "123456","jwt");
@@ -90,6 +98,28 @@ public class CarritoServiceTest {
         Assertions.assertEquals("pi_123", orden.getReferenciaExterna());
     }
 
+    @Test
+    void iniciarPago_reservaConElIdDeLaOrdenYaGuardada() throws StripeException {
+        String userId = "user123";
+        PaymentIntent mockIntent = new PaymentIntent();
+        mockIntent.setId("pi_123");
+
+        Mockito.when(carritoItemRepository.findByUserId(userId)).thenReturn(List.of(crearItem(1L, 2)));
+        Mockito.when(stockClient.obtenerProductosPorIds(List.of(1L)))
+                .thenReturn(Map.of(1L, new ProductoDTO(1L, "Producto 1", BigDecimal.TEN, 10, "url")));
+        Mockito.when(stripeService.crearPago(Mockito.any())).thenReturn(mockIntent);
+        Mockito.doAnswer(invocation -> {
+            invocation.getArgument(0, OrdenPago.class).setId(42L);
+            return null;
+        }).when(ordenPagoRepository).persist(Mockito.any(OrdenPago.class));
+
+        carritoService.iniciarPago(userId, "Calle Falsa", "123456", "jwt");
+
+        InOrder orden = Mockito.inOrder(ordenPagoRepository, stockClient);
+        orden.verify(ordenPagoRepository).persist(Mockito.any(OrdenPago.class));
+        orden.verify(stockClient).reservarStock(Map.of(1L, 2), 42L, "jwt");
+    }
+
     @Test
     void iniciarPago_montoCero() {
         String userId = "user123";
@@ -97,7 +127,7 @@ public class CarritoServiceTest {
         ProductoDTO productoDTO = new ProductoDTO(1L, "Gratis", BigDecimal.ZERO, 10,"url");
 
         Mockito.when(carritoItemRepository.findByUserId(userId)).thenReturn(carrito);
-        Mockito.when(stockClient.obtenerProductoPorId(1L)).thenReturn(productoDTO);
+        Mockito.when(stockClient.obtenerProductosPorIds(List.of(1L))).thenReturn(Map.of(1L, productoDTO));
         //Mockito.when(stockClient.reservarStock(Map.of(1L, 2))).thenReturn(Response.ok().build());
 
         OrdenPago orden = carritoService.iniciarPago(userId, "Calle Gratis", "000","jwt");
@@ -121,7 +151,7 @@ public class CarritoServiceTest {
     void iniciarPago_productoNoEncontradoEnStock() {
         List<CarritoItem> carrito = List.of(crearItem(1L, 1));
         Mockito.when(carritoItemRepository.findByUserId("user123")).thenReturn(carrito);
-        Mockito.when(stockClient.obtenerProductoPorId(1L)).thenReturn(null);
+        Mockito.when(stockClient.obtenerProductosPorIds(List.of(1L))).thenReturn(Map.of());
 
         WebApplicationException ex = Assertions.assertThrows(WebApplicationException.class, () ->
                 carritoService.iniciarPago("user123", "Calle", "123","jwt"));
@@ -234,6 +264,7 @@ public class CarritoServiceTest {
 
         Mockito.when(stockClient.obtenerProductoPorId(productoId))
                 .thenReturn(producto);
+        Mockito.when(stockClient.obtenerDisponible(productoId)).thenReturn(1);
 
         Mockito.when(carritoItemRepository.findByUserAndProducto(userId, productoId))
                 .thenReturn(Optional.empty());
@@ -253,6 +284,7 @@ public class CarritoServiceTest {
         // Mock del producto
         ProductoDTO productoMock = new ProductoDTO(1L, "Producto Test", BigDecimal.valueOf(100), 10,"url");
         when(stockClient.obtenerProductoPorId(1L)).thenReturn(productoMock);
+        when(stockClient.obtenerDisponible(1L)).thenReturn(10);
 
         // Llamada al método
         CarritoItemDetalleDTO result = carritoService.agregarProducto("user1", 1L, 2);
@@ -286,7 +318,7 @@ public class CarritoServiceTest {
         item.setCantidad(2);
 
         when(carritoItemRepository.findByUserId("user1")).thenReturn(List.of(item));
-        when(stockClient.obtenerProductoPorId(1L)).thenReturn(new ProductoDTO(1L, "Producto Test", BigDecimal.valueOf(100), 10,"url"));
+        when(stockClient.obtenerProductosPorIds(List.of(1L))).thenReturn(Map.of(1L, new ProductoDTO(1L, "Producto Test", BigDecimal.valueOf(100), 10,"url")));
 
         // Llamada al método
         List<CarritoItemDetalleDTO> carrito = carritoService.obtenerCarrito("user1");
@@ -295,6 +327,88 @@ public class CarritoServiceTest {
         assertNotNull(carrito);
         assertEquals(1, carrito.size());
         verify(carritoItemRepository, times(1)).findByUserId("user1");
+        verify(stockClient, never()).obtenerProductoPorId(anyLong());
+    }
+
+    @Test
+    void agregarProducto_usaElDisponibleActualYNoElStockCacheado() {
+        // El producto cacheado aún dice 10, pero ya solo quedan 2
+        when(stockClient.obtenerProductoPorId(productoId)).thenReturn(productoConStock(10));
+        when(stockClient.obtenerDisponible(productoId)).thenReturn(2);
+
+        WebApplicationException ex = assertThrows(WebApplicationException.class,
+                () -> carritoService.agregarProducto(userId, productoId, 3));
+
+        assertEquals(400, ex.getResponse().getStatus());
+        verify(carritoItemRepository, never()).persist(any(CarritoItem.class));
+    }
+
+    @Test
+    public void obtenerCarrito_ajustaAlDisponibleActual() {
+        CarritoItem item = crearItem(1L, 5);
+        item.setUserId("userAjuste");
+        when(carritoItemRepository.findByUserId("userAjuste")).thenReturn(List.of(item));
+        when(carritoItemRepository.findByUserAndProducto("userAjuste", 1L)).thenReturn(Optional.of(item));
+        when(stockClient.obtenerProductosPorIds(List.of(1L)))
+                .thenReturn(Map.of(1L, new ProductoDTO(1L, "Producto Test", BigDecimal.valueOf(100), 10, "url")));
+        when(stockClient.obtenerDisponibles(List.of(1L))).thenReturn(Map.of(1L, 3));
+
+        List<CarritoItemDetalleDTO> carrito = carritoService.obtenerCarrito("userAjuste");
+
+        assertEquals(3, carrito.get(0).cantidad());
+        assertEquals(3, item.getCantidad());
+        verify(carritoItemRepository).persist(item);
+    }
+
+    @Test
+    public void obtenerCarrito_sinStockQuitaLaLineaYElIndice() {
+        CarritoItem agotado = crearItem(1L, 5);
+        agotado.setUserId("userSinStock");
+        CarritoItem conStock = crearItem(2L, 1);
+        conStock.setUserId("userSinStock");
+        when(carritoItemRepository.findByUserId("userSinStock")).thenReturn(List.of(agotado, conStock));
+        when(carritoItemRepository.findByUserAndProducto("userSinStock", 1L)).thenReturn(Optional.of(agotado));
+        when(stockClient.obtenerProductosPorIds(List.of(1L, 2L))).thenReturn(Map.of(
+                1L, new ProductoDTO(1L, "Agotado", BigDecimal.TEN, 0, "url"),
+                2L, new ProductoDTO(2L, "Con stock", BigDecimal.TEN, 5, "url")));
+        when(stockClient.obtenerDisponibles(List.of(1L, 2L))).thenReturn(Map.of(1L, 0, 2L, 5));
+        indiceCarritos.agregar(1L, "userSinStock");
+
+        List<CarritoItemDetalleDTO> carrito = carritoService.obtenerCarrito("userSinStock");
+
+        // Ni una línea con cantidad 0 en la respuesta ni una fila a 0 en la base de datos
+        assertEquals(List.of(2L), carrito.stream().map(CarritoItemDetalleDTO::productoId).toList());
+        verify(carritoItemRepository).delete(agotado);
+        verify(carritoItemRepository, never()).persist(agotado);
+        assertFalse(redisDataSource.set(String.class).sismember("carrito:producto:1", "userSinStock"));
+    }
+
+    @Test
+    public void obtenerCarrito_productoSinRespuestaNoSeBorra() {
+        when(carritoItemRepository.findByUserId("userSinRespuesta"))
+                .thenReturn(List.of(crearItem(1L, 2), crearItem(2L, 1)));
+        // El producto 2 no ha respondido, pero no consta como inexistente
+        when(stockClient.obtenerProductosPorIds(List.of(1L, 2L)))
+                .thenReturn(Map.of(1L, new ProductoDTO(1L, "Producto Test", BigDecimal.valueOf(100), 10, "url")));
+        when(stockClient.inexistente(2L)).thenReturn(false);
+
+        List<CarritoItemDetalleDTO> carrito = carritoService.obtenerCarrito("userSinRespuesta");
+
+        assertEquals(1, carrito.size());
+        assertEquals(1L, carrito.get(0).productoId());
+        verify(carritoItemRepository, never()).delete(any(CarritoItem.class));
+        verify(stockClient, times(1)).obtenerProductosPorIds(List.of(1L, 2L));
+    }
+
+    @Test
+    public void obtenerCarrito_ningunProductoDisponible() {
+        when(carritoItemRepository.findByUserId("userSinCatalogo")).thenReturn(List.of(crearItem(1L, 2)));
+        when(stockClient.obtenerProductosPorIds(List.of(1L))).thenReturn(Map.of());
+
+        WebApplicationException ex = assertThrows(WebApplicationException.class,
+                () -> carritoService.obtenerCarrito("userSinCatalogo"));
+
+        assertEquals(503, ex.getResponse().getStatus());
     }
 
     @Test
@@ -330,9 +444,8 @@ public class CarritoServiceTest {
 
     @Test
     public void testActualizarCantidad() {
-        // Mock del producto
-        ProductoDTO productoMock = new ProductoDTO(1L, "Producto Test", BigDecimal.valueOf(100), 10,"url");
-        when(stockClient.obtenerProductoPorId(1L)).thenReturn(productoMock);
+        // Mock de la disponibilidad del producto
+        when(stockClient.obtenerDisponible(1L)).thenReturn(10);
 
         // Mock del repositorio
         CarritoItem item = new CarritoItem();
@@ -0,0 +1,109 @@
+package Unitario;
+
+import Entidades.CarritoItem;
+import Repositorios.CarritoStoreRedis;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.hash.HashCommands;
+import io.quarkus.redis.datasource.keys.KeyCommands;
+import io.vertx.mutiny.redis.client.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CarritoStoreRedisTest {
+
+    CarritoStoreRedis store;
+
+    RedisDataSource redis;
+
+    HashCommands<String, String, Long> hash;
+
+    KeyCommands<String> claves;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        redis = mock(RedisDataSource.class);
+        hash = mock(HashCommands.class);
+        claves = mock(KeyCommands.class);
+        when(redis.hash(Long.class)).thenReturn(hash);
+        when(redis.key()).thenReturn(claves);
+
+        store = new CarritoStoreRedis();
+        store.redisDataSource = redis;
+        store.ttl = Duration.ofDays(7);
+    }
+
+    @Test
+    void sumarCantidad_unSoloScriptConLaCaducidad() {
+        responder("1", "2", 5L);
+
+        CarritoItem item = store.sumarCantidad("user1", 1L, 2);
+
+        assertEquals(5, item.getCantidad());
+        // La suma, el borrado a cero y la caducidad van en el mismo EVAL, sin comandos sueltos
+        verify(hash, never()).hincrby(anyString(), anyString(), anyLong());
+        verify(hash, never()).hdel(anyString(), any(String[].class));
+        verify(claves, never()).expire(anyString(), any(Duration.class));
+    }
+
+    @Test
+    void sumarCantidad_devuelveElTotalQueDejaElScript() {
+        // La compensación deja la línea a cero: el propio script la borra
+        responder("1", "-2", 0L);
+
+        assertEquals(0, store.sumarCantidad("user1", 1L, -2).getCantidad());
+        verify(hash, never()).hdel(anyString(), any(String[].class));
+    }
+
+    @Test
+    void fijarCantidad_lineaExistente() {
+        responder("1", "3", 1L);
+
+        Optional<CarritoItem> item = store.fijarCantidad("user1", 1L, 3);
+
+        assertEquals(3, item.orElseThrow().getCantidad());
+        verify(hash, never()).hget(anyString(), anyString());
+        verify(hash, never()).hset(anyString(), anyString(), anyLong());
+    }
+
+    @Test
+    void fijarCantidad_noCreaUnaLineaQueYaNoExiste() {
+        // 0: el script no ha encontrado la línea y no ha escrito nada
+        responder("1", "3", 0L);
+
+        assertTrue(store.fijarCantidad("user1", 1L, 3).isEmpty());
+        verify(hash, never()).hdel(anyString(), any(String[].class));
+    }
+
+    @Test
+    void fijarCantidad_aCeroBorraLaLinea() {
+        when(hash.hdel("carrito:user1", "1")).thenReturn(1);
+
+        Optional<CarritoItem> item = store.fijarCantidad("user1", 1L, 0);
+
+        assertEquals(0, item.orElseThrow().getCantidad());
+        verify(redis, never()).execute(anyString(), any(String[].class));
+    }
+
+    @Test
+    void findByUserId_conviertePorCadaCampoDelHash() {
+        when(hash.hgetall("carrito:user1")).thenReturn(Map.of("1", 2L, "7", 1L));
+
+        assertEquals(2, store.findByUserId("user1").size());
+    }
+
+    // EVAL <script> 1 carrito:user1 <productoId> <cantidad> <ttl en segundos>
+    private void responder(String productoId, String cantidad, long resultado) {
+        Response respuesta = mock(Response.class);
+        when(respuesta.toLong()).thenReturn(resultado);
+        when(redis.execute(eq("EVAL"), anyString(), eq("1"), eq("carrito:user1"),
+                eq(productoId), eq(cantidad), eq("604800"))).thenReturn(respuesta);
+    }
+}
@@ -0,0 +1,107 @@
+package Unitario;
+
+import Entidades.CarritoItem;
+import Repositorios.CarritoItemRepository;
+import Repositorios.CarritoStore;
+import Repositorios.CarritoStorePostgres;
+import Repositorios.CarritoStoreRedis;
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// El mismo contrato de CarritoStore contra las dos implementaciones: Redis con el Redis de pruebas (así se
+// ejecutan de verdad sus scripts) y Postgres con un CarritoItemRepository que guarda las filas en un mapa.
+@QuarkusTest
+public class CarritoStoreTest {
+
+    @Inject
+    CarritoStoreRedis redis;
+
+    @Inject
+    CarritoStorePostgres postgres;
+
+    @InjectMock
+    CarritoItemRepository carritoItemRepository;
+
+    String userId;
+
+    @BeforeEach
+    void setup() {
+        // Un carrito por prueba y por store, porque el Redis de pruebas se comparte
+        userId = "contrato-" + System.nanoTime();
+
+        Map<Long, CarritoItem> filas = new HashMap<>();
+        when(carritoItemRepository.findByUserAndProducto(anyString(), anyLong()))
+                .thenAnswer(i -> Optional.ofNullable(filas.get(i.<Long>getArgument(1))));
+        when(carritoItemRepository.findByUserId(anyString()))
+                .thenAnswer(i -> new ArrayList<>(filas.values()));
+        doAnswer(i -> {
+            CarritoItem item = i.getArgument(0);
+            filas.put(item.getProductoId(), item);
+            return null;
+        }).when(carritoItemRepository).persist(any(CarritoItem.class));
+        doAnswer(i -> {
+            CarritoItem item = i.getArgument(0);
+            filas.remove(item.getProductoId());
+            return null;
+        }).when(carritoItemRepository).delete(any(CarritoItem.class));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"postgres", "redis"})
+    void fijarCantidad_aCeroQuitaLaLinea(String tipo) {
+        CarritoStore store = store(tipo);
+        store.sumarCantidad(userId, 1L, 3);
+
+        Optional<CarritoItem> item = store.fijarCantidad(userId, 1L, 0);
+
+        assertEquals(0, item.orElseThrow().getCantidad());
+        assertTrue(store.findByUserAndProducto(userId, 1L).isEmpty());
+        assertTrue(store.findByUserId(userId).isEmpty());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"postgres", "redis"})
+    void fijarCantidad_noCreaLaLinea(String tipo) {
+        CarritoStore store = store(tipo);
+
+        assertTrue(store.fijarCantidad(userId, 1L, 2).isEmpty());
+        assertTrue(store.fijarCantidad(userId, 1L, 0).isEmpty());
+        assertTrue(store.findByUserAndProducto(userId, 1L).isEmpty());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"postgres", "redis"})
+    void fijarCantidad_cambiaUnaLineaExistente(String tipo) {
+        CarritoStore store = store(tipo);
+        store.sumarCantidad(userId, 1L, 3);
+
+        assertEquals(5, store.fijarCantidad(userId, 1L, 5).orElseThrow().getCantidad());
+        assertEquals(5, store.findByUserAndProducto(userId, 1L).orElseThrow().getCantidad());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"postgres", "redis"})
+    void sumarCantidad_queDejaLaLineaACeroLaQuita(String tipo) {
+        CarritoStore store = store(tipo);
+        store.sumarCantidad(userId, 1L, 2);
+
+        assertEquals(0, store.sumarCantidad(userId, 1L, -2).getCantidad());
+        assertTrue(store.findByUserAndProducto(userId, 1L).isEmpty());
+    }
+
+    private CarritoStore store(String tipo) {
+        return tipo.equals("redis") ? redis : postgres;
+    }
+}
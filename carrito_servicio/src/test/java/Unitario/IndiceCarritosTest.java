@@ -0,0 +1,104 @@
+package Unitario;
+
+import Servicios.IndiceCarritos;
+import io.quarkus.cache.Cache;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.keys.KeyCommands;
+import io.quarkus.redis.datasource.set.SetCommands;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class IndiceCarritosTest {
+
+    IndiceCarritos indice;
+
+    RedisDataSource redis;
+
+    SetCommands<String, String> sets;
+
+    KeyCommands<String> claves;
+
+    Cache carritoCache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        redis = mock(RedisDataSource.class);
+        sets = mock(SetCommands.class);
+        claves = mock(KeyCommands.class);
+        carritoCache = mock(Cache.class);
+        when(redis.set(String.class)).thenReturn(sets);
+        when(redis.key()).thenReturn(claves);
+        when(carritoCache.invalidate(any())).thenReturn(Uni.createFrom().voidItem());
+
+        indice = new IndiceCarritos();
+        indice.redisDataSource = redis;
+        indice.carritoCache = carritoCache;
+        indice.ttl = Duration.ofDays(7);
+    }
+
+    @Test
+    void agregar_anadeElUsuarioAlSetDelProductoYRenuevaSuCaducidad() {
+        indice.agregar(1L, "user1");
+
+        verify(sets).sadd("carrito:producto:1", "user1");
+        verify(claves).expire("carrito:producto:1", Duration.ofDays(7));
+    }
+
+    @Test
+    void agregar_unFalloDeRedisNoSePropaga() {
+        when(sets.sadd(anyString(), any())).thenThrow(new RuntimeException("Redis caído"));
+
+        assertDoesNotThrow(() -> indice.agregar(1L, "user1"));
+    }
+
+    @Test
+    void quitar_sacaAlUsuarioDeCadaProducto() {
+        indice.quitar("user1", List.of(1L, 2L));
+
+        verify(sets).srem("carrito:producto:1", "user1");
+        verify(sets).srem("carrito:producto:2", "user1");
+    }
+
+    @Test
+    void retirarProducto_devuelveLosUsuariosYBorraElSet() {
+        when(sets.smembers("carrito:producto:1")).thenReturn(Set.of("user1", "user2"));
+
+        Set<String> userIds = indice.retirarProducto(1L);
+
+        assertEquals(Set.of("user1", "user2"), userIds);
+        verify(claves).del("carrito:producto:1");
+    }
+
+    @Test
+    void retirarProducto_sinRedisDevuelveVacio() {
+        when(sets.smembers(anyString())).thenThrow(new RuntimeException("Redis caído"));
+
+        assertTrue(indice.retirarProducto(1L).isEmpty());
+        verify(claves, never()).del(any(String[].class));
+    }
+
+    @Test
+    void invalidarCarritos_invalidaSoloLosUsuariosIndicados() {
+        indice.invalidarCarritos(Set.of("user1", "user2"));
+
+        verify(carritoCache).invalidate("user1");
+        verify(carritoCache).invalidate("user2");
+        verifyNoMoreInteractions(carritoCache);
+    }
+
+    @Test
+    void invalidarCarritos_sinUsuariosNoHaceNada() {
+        indice.invalidarCarritos(Set.of());
+
+        verifyNoInteractions(carritoCache);
+    }
+}
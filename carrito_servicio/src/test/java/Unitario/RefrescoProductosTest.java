@@ -0,0 +1,91 @@
+package Unitario;
+
+import Cliente.RefrescoProductos;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Con catalogo-service.refresco.hilos=1 y catalogo-service.refresco.cola=1 (application.properties de pruebas)
+@QuarkusTest
+public class RefrescoProductosTest {
+
+    @Inject
+    RefrescoProductos refresco;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry registry;
+
+    @Test
+    void programar_noRepiteLosProductosQueYaTienenRecarga() throws InterruptedException {
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        CountDownLatch terminadas = new CountDownLatch(2);
+        List<List<Long>> recargas = new CopyOnWriteArrayList<>();
+
+        refresco.programar(List.of(8001L, 8002L), ids -> {
+            recargas.add(ids);
+            empezada.countDown();
+            esperar(liberar);
+            terminadas.countDown();
+        });
+        assertTrue(empezada.await(5, TimeUnit.SECONDS));
+        refresco.programar(List.of(8002L, 8003L), ids -> {
+            recargas.add(ids);
+            terminadas.countDown();
+        });
+        liberar.countDown();
+
+        assertTrue(terminadas.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of(8001L, 8002L), List.of(8003L)), recargas);
+    }
+
+    @Test
+    void programar_conLaColaLlenaSeDescartaYSeLiberanLosProductos() throws InterruptedException {
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        CountDownLatch enCola = new CountDownLatch(1);
+        long descartados = registry.counter("carrito_cache_producto_refrescos_descartados_total").getCount();
+        List<List<Long>> recargas = new CopyOnWriteArrayList<>();
+
+        // Ocupa el único hilo y el único hueco de la cola
+        refresco.programar(List.of(8101L), ids -> {
+            empezada.countDown();
+            esperar(liberar);
+        });
+        assertTrue(empezada.await(5, TimeUnit.SECONDS));
+        refresco.programar(List.of(8102L), ids -> enCola.countDown());
+
+        refresco.programar(List.of(8103L), recargas::add);
+        assertEquals(descartados + 1,
+                registry.counter("carrito_cache_producto_refrescos_descartados_total").getCount());
+        liberar.countDown();
+        assertTrue(enCola.await(5, TimeUnit.SECONDS));
+
+        // El descartado no queda marcado como programado: la siguiente lectura lo vuelve a intentar
+        CountDownLatch reintentada = new CountDownLatch(1);
+        refresco.programar(List.of(8103L), ids -> {
+            recargas.add(ids);
+            reintentada.countDown();
+        });
+        assertTrue(reintentada.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of(8103L)), recargas);
+    }
+
+    private static void esperar(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
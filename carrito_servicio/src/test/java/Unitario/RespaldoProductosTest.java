@@ -0,0 +1,44 @@
+package Unitario;
+
+import Cliente.RespaldoProductos;
+import DTO.ProductoDTO;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RespaldoProductosTest {
+
+    @Test
+    void codificar_arraySinNombresDeCampo() {
+        ProductoDTO producto = new ProductoDTO(7L, "Camiseta", new BigDecimal("19.90"), 3, "url");
+
+        assertEquals("[7,\"Camiseta\",\"19.90\",3,\"url\"]", RespaldoProductos.codificar(producto));
+    }
+
+    @Test
+    void decodificar_recuperaElMismoProducto() {
+        ProductoDTO producto = new ProductoDTO(7L, "Camiseta", new BigDecimal("19.90"), 3, "url");
+
+        ProductoDTO leido = RespaldoProductos.decodificar(RespaldoProductos.codificar(producto));
+
+        assertEquals(producto, leido);
+        // El precio conserva la escala, no solo el valor
+        assertEquals("19.90", leido.precio().toPlainString());
+    }
+
+    @Test
+    void decodificar_camposNulos() {
+        ProductoDTO producto = new ProductoDTO(7L, null, null, null, null);
+
+        assertEquals(producto, RespaldoProductos.decodificar(RespaldoProductos.codificar(producto)));
+    }
+
+    @Test
+    void decodificar_valorIlegibleDevuelveNull() {
+        assertNull(RespaldoProductos.decodificar("no es json"));
+        assertNull(RespaldoProductos.decodificar("[7]"));
+        assertNull(RespaldoProductos.decodificar("[7,\"Camiseta\",\"abc\",3,\"url\"]"));
+    }
+}
@@ -0,0 +1,4 @@
+package com.DTO;
+
+// disponible = stock - unidades reservadas por pedidos aún no confirmados
+public record DisponibilidadDTO(Long productoId, int stock, int disponible) {}
@@ -0,0 +1,11 @@
+package com.DTO;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+public record FacetasDTO(Map<String, Long> categorias, List<RangoPrecio> precios) {
+
+    // hasta es exclusivo; null en el último rango
+    public record RangoPrecio(BigDecimal desde, BigDecimal hasta, long total) {}
+}
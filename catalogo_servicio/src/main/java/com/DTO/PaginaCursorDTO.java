@@ -0,0 +1,22 @@
+package com.DTO;
+
+import java.util.List;
+
+public class PaginaCursorDTO<T> {
+    private List<T> datos;
+    // Cursor opaco para pedir la página siguiente; null si no hay más resultados
+    private String siguiente;
+
+    public PaginaCursorDTO(List<T> datos, String siguiente) {
+        this.datos = datos;
+        this.siguiente = siguiente;
+    }
+
+    public List<T> getDatos() {
+        return datos;
+    }
+
+    public String getSiguiente() {
+        return siguiente;
+    }
+}
@@ -0,0 +1,6 @@
+package com.DTO;
+
+import java.math.BigDecimal;
+
+// Lo que el carrito necesita de un producto; se publica en productos-snapshot con el ID como clave
+public record ProductoSnapshotDTO(Long id, String nombre, BigDecimal precio, Integer stock, String imagenUrl) {}
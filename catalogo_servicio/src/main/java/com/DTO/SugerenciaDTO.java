@@ -0,0 +1,3 @@
+package com.DTO;
+
+public record SugerenciaDTO(Long id, String nombre, double puntuacion) {}
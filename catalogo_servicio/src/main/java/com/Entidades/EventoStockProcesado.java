@@ -0,0 +1,25 @@
+package com.Entidades;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+// Eventos de stock ya aplicados, identificados por tipo y pedido (p.ej. "CONFIRMAR_COMPRA:42"). Se conservan
+// el tiempo suficiente para cubrir reenvíos y rebalanceos y después se purgan por fecha.
+@Entity
+@Table(indexes = @Index(name = "idx_evento_stock_procesado_en", columnList = "procesadoEn"))
+public class EventoStockProcesado {
+
+    @Id
+    private String clave;
+
+    private LocalDateTime procesadoEn;
+
+    public String getClave() {
+        return clave;
+    }
+
+    public LocalDateTime getProcesadoEn() {
+        return procesadoEn;
+    }
+}
@@ -11,6 +11,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+// Un índice por cada orden del listado paginado por cursor (ver RepositorioProducto.OrdenListado)
+@Table(indexes = {
+        @Index(name = "idx_producto_precio_id", columnList = "precio, id"),
+        @Index(name = "idx_producto_puntuacion_id", columnList = "puntuacion, id"),
+        @Index(name = "idx_producto_nombre_id", columnList = "nombre, id")
+})
 public class Producto {
 
     @Id
@@ -38,21 +44,41 @@ public class Producto {
     @Min(value = 0, message = "El stock no puede ser menor que 0")
     private Integer stock;
 
+    // Nombre explícito porque las consultas nativas de RepositorioProducto lo usan
     @NotNull
+    @Column(name = "imagen_url")
     private String imagenURL;
 
     private Integer stockReservado = 0;
 
+    // Las reservas de este producto se sirven desde StockDistribuido en lugar de la fila
+    private boolean stockDistribuido = false;
+
     @NotNull
     @Min(value = 0, message = "La puntuación no puede ser menor que 0")
     private double puntuacion;
 
-    @OneToMany(cascade = CascadeType.ALL,
+    @OneToMany(mappedBy = "producto",
+            cascade = CascadeType.ALL,
             orphanRemoval = true,
             fetch = FetchType.LAZY)
-    @JoinColumn(name = "id_producto", nullable = false)
     private List<Valoracion> valoraciones = new ArrayList<>();
 
+    // Agregados de las valoraciones. Se actualizan en SQL al registrar cada una, sin cargar la colección
+    private long sumaPuntuaciones = 0;
+
+    private int numValoraciones = 0;
+
+    private int estrellas1 = 0;
+
+    private int estrellas2 = 0;
+
+    private int estrellas3 = 0;
+
+    private int estrellas4 = 0;
+
+    private int estrellas5 = 0;
+
     @JdbcTypeCode(SqlTypes.JSON)
     @Column(columnDefinition = "jsonb")
     private JsonNode detalles;
@@ -136,6 +162,14 @@ public class Producto {
         this.stockReservado = stockReservado;
     }
 
+    public boolean isStockDistribuido() {
+        return stockDistribuido;
+    }
+
+    public void setStockDistribuido(boolean stockDistribuido) {
+        this.stockDistribuido = stockDistribuido;
+    }
+
     public double getPuntuacion() {
         return puntuacion;
     }
@@ -144,12 +178,17 @@ public class Producto {
         this.puntuacion = puntuacion;
     }
 
-    public void actualizarPuntuacion(int nuevaPuntuacion, Integer totalValoraciones) {
-        this.puntuacion = (this.puntuacion * (totalValoraciones - 1.0) + nuevaPuntuacion) / totalValoraciones;
+    public long getSumaPuntuaciones() {
+        return sumaPuntuaciones;
+    }
+
+    public int getNumValoraciones() {
+        return numValoraciones;
     }
 
-    public void agregarValoracion(Valoracion valoracion) {
-        this.valoraciones.add(valoracion);
+    // Número de valoraciones con 1, 2, 3, 4 y 5 estrellas
+    public int[] getHistogramaEstrellas() {
+        return new int[]{estrellas1, estrellas2, estrellas3, estrellas4, estrellas5};
     }
 
     public List<Valoracion> getValoraciones() {
@@ -0,0 +1,83 @@
+package com.Entidades;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+import java.time.LocalDateTime;
+
+// Unidades retenidas por una reserva hasta que llega la confirmación o la liberación del pedido, o hasta que
+// vencen. El índice (estado, expiraEn) permite al barrido encontrar las vencidas sin recorrer la tabla.
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_reserva_stock_estado_expira", columnList = "estado, expiraEn"),
+        @Index(name = "idx_reserva_stock_orden", columnList = "ordenId")
+})
+public class ReservaStock {
+
+    public enum Estado { ACTIVA, CONFIRMADA, LIBERADA, EXPIRADA }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private Long ordenId;
+
+    @NotNull
+    private Long productoId;
+
+    @Min(1)
+    private int cantidad;
+
+    @NotNull
+    private LocalDateTime expiraEn;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    private Estado estado = Estado.ACTIVA;
+
+    public ReservaStock() {
+    }
+
+    public ReservaStock(Long ordenId, Long productoId, int cantidad) {
+        this.ordenId = ordenId;
+        this.productoId = productoId;
+        this.cantidad = cantidad;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getOrdenId() {
+        return ordenId;
+    }
+
+    public Long getProductoId() {
+        return productoId;
+    }
+
+    public int getCantidad() {
+        return cantidad;
+    }
+
+    public LocalDateTime getExpiraEn() {
+        return expiraEn;
+    }
+
+    public void setExpiraEn(LocalDateTime expiraEn) {
+        this.expiraEn = expiraEn;
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    public void setEstado(Estado estado) {
+        this.estado = estado;
+    }
+}
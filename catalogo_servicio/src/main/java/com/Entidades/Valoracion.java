@@ -7,6 +7,8 @@ import java.time.LocalDateTime;
 @Entity
 @Table(uniqueConstraints = {
         @UniqueConstraint(columnNames = {"idUsuario", "id_producto"})
+}, indexes = {
+        @Index(name = "idx_valoracion_producto_fecha", columnList = "id_producto, fechaCreacion")
 })
 public class Valoracion {
     @Id
@@ -17,6 +19,7 @@ public class Valoracion {
     private String idUsuario;
 
     @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "id_producto", nullable = false)
     @NotNull(message = "El producto no puede ser nulo")
     private Producto producto;
 
@@ -0,0 +1,46 @@
+package com.Inicializacion;
+
+import io.quarkus.arc.profile.UnlessBuildProfile;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+// Columna tsvector con nombre, categoría y descripción (en ese orden de peso) e índices GIN para la búsqueda
+// por texto y por detalles. Se crean al arrancar porque Hibernate no sabe generar columnas calculadas ni índices
+// GIN. Sin ellos las búsquedas fallarían en cada consulta, así que si no se pueden crear no se arranca. En el
+// perfil de test no hay base de datos y el bean no existe.
+@ApplicationScoped
+@UnlessBuildProfile("test")
+public class IndicesBusqueda {
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    void onStart(@Observes StartupEvent ev) {
+        try {
+            QuarkusTransaction.requiringNew().run(() -> {
+                entityManager.createNativeQuery(
+                        "ALTER TABLE producto ADD COLUMN IF NOT EXISTS busqueda tsvector GENERATED ALWAYS AS (" +
+                                "setweight(to_tsvector('spanish', coalesce(nombre, '')), 'A') || " +
+                                "setweight(to_tsvector('spanish', coalesce(categoria, '')), 'B') || " +
+                                "setweight(to_tsvector('spanish', coalesce(descripcion, '')), 'C')) STORED"
+                ).executeUpdate();
+                entityManager.createNativeQuery(
+                        "CREATE INDEX IF NOT EXISTS idx_producto_busqueda ON producto USING GIN (busqueda)"
+                ).executeUpdate();
+                entityManager.createNativeQuery(
+                        "CREATE INDEX IF NOT EXISTS idx_producto_categoria ON producto (lower(categoria))"
+                ).executeUpdate();
+                // jsonb_path_ops solo sirve para @>, que es lo único que usan los filtros por detalles
+                entityManager.createNativeQuery(
+                        "CREATE INDEX IF NOT EXISTS idx_producto_detalles ON producto USING GIN (detalles jsonb_path_ops)"
+                ).executeUpdate();
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException("No se han podido crear la columna y los índices de búsqueda", e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.Recursos;
 
+import com.DTO.DisponibilidadDTO;
 import com.DTO.ProductoDTO;
 import com.DTO.ValoracionDTO;
 import com.DTO.PaginacionResponseDTO;
@@ -16,6 +17,7 @@ import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.UriInfo;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Fallback;
 import org.eclipse.microprofile.faulttolerance.Retry;
@@ -28,7 +30,9 @@ import org.eclipse.microprofile.metrics.annotation.RegistryType;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 
 import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Path("/catalogo")
 @Produces(MediaType.APPLICATION_JSON)
@@ -66,13 +70,43 @@ public class CatalogoResource {
                                 @QueryParam("nombre") String nombre,
                                 @QueryParam("categoria") String categoria,
                                 @QueryParam("precioMin") Double precioMin,
-                                @QueryParam("precioMax") Double precioMax) {
+                                @QueryParam("precioMax") Double precioMax,
+                                @QueryParam("orden") String orden,
+                                @QueryParam("cursor") String cursor,
+                                @Context UriInfo uriInfo) {
         try{
             if (size > 100) {
                 return Response.status(Response.Status.BAD_REQUEST)
                         .entity("El tamaño máximo permitido por página es 100").build();
             }
-            List<ProductoDTO> productos = catalogoService.obtenerProductos(page, size, nombre, categoria, precioMin, precioMax);
+            if (size < 1) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("El tamaño mínimo por página es 1").build();
+            }
+            // Filtros por atributos: ?detalles.color=Negro&detalles.almacenamiento=128GB
+            Map<String, String> detalles = new HashMap<>();
+            uriInfo.getQueryParameters().forEach((parametro, valores) -> {
+                if (parametro.startsWith("detalles.") && parametro.length() > "detalles.".length()) {
+                    detalles.put(parametro.substring("detalles.".length()), valores.get(0));
+                }
+            });
+            if (detalles.size() > 10) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("El número máximo de filtros por detalles es 10").build();
+            }
+            // Con orden o cursor (vacío para la primera página) se pagina por clave; si no, por page/size
+            if (orden != null || cursor != null) {
+                try {
+                    return Response.ok(catalogoService.obtenerProductosPorCursor(size, nombre, categoria,
+                            precioMin, precioMax, detalles, orden, cursor)).build();
+                } catch (WebApplicationException e) {
+                    if (e.getResponse().getStatus() != Response.Status.BAD_REQUEST.getStatusCode()) {
+                        throw e;
+                    }
+                    return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+                }
+            }
+            List<ProductoDTO> productos = catalogoService.obtenerProductos(page, size, nombre, categoria, precioMin, precioMax, detalles);
             return Response.ok(productos).build();
         } catch (Exception e) {
             errorCounter.inc();
@@ -80,7 +114,8 @@ public class CatalogoResource {
         }
     }
 
-    public Response fallbackGetProducts(int page, int size, String nombre, String categoria, Double precioMin, Double precioMax) {
+    public Response fallbackGetProducts(int page, int size, String nombre, String categoria, Double precioMin, Double precioMax,
+                                        String orden, String cursor, UriInfo uriInfo) {
         return Response.status(Response.Status.SERVICE_UNAVAILABLE)
                 .entity("Servicio de catálogo no disponible actualmente. Intente más tarde.")
                 .build();
@@ -119,6 +154,24 @@ public class CatalogoResource {
         }
     }
 
+    @PUT
+    @Path("/{id}/stock-distribuido")
+    @RolesAllowed({"admin"})
+    @Timed(name = "checksTimer", unit = MetricUnits.MILLISECONDS)
+    @Counted(name = "performedChecks")
+    @Timeout(value = 3, unit = ChronoUnit.SECONDS)
+    public Response updateStockDistribuido(@PathParam("id") Long id, @QueryParam("activo") @DefaultValue("true") boolean activo) {
+        try {
+            if (catalogoService.cambiarStockDistribuido(id, activo)) {
+                return Response.ok("Stock distribuido " + (activo ? "activado" : "desactivado") + " para el producto " + id + ".").build();
+            }
+            return Response.status(Response.Status.NOT_FOUND).entity("Producto con ID " + id + " no encontrado.").build();
+        } catch (Exception e) {
+            errorCounter.inc();
+            throw e;
+        }
+    }
+
     @DELETE
     @Path("/{id}")
     @RolesAllowed("admin")
@@ -173,6 +226,150 @@ public class CatalogoResource {
                 .build();
     }
 
+    @GET
+    @Path("/{id}/disponibilidad")
+    @Retry(delay = 200, delayUnit = ChronoUnit.MILLIS)
+    @Timeout(value = 3, unit = ChronoUnit.SECONDS)
+    @CircuitBreaker(
+            requestVolumeThreshold = 10,
+            delay = 5,
+            delayUnit = ChronoUnit.SECONDS
+    )
+    @Fallback(fallbackMethod = "fallbackGetDisponibilidad")
+    @Timed(name = "checksDisponibilidadTimer", unit = MetricUnits.MILLISECONDS)
+    public Response getDisponibilidad(@PathParam("id") Long id) {
+        if (id == null || id <= 0) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("El ID del producto debe ser un número positivo.").build();
+        }
+        try {
+            DisponibilidadDTO disponibilidad = catalogoService.obtenerDisponibilidad(id);
+            if (disponibilidad == null) {
+                return Response.status(Response.Status.NOT_FOUND)
+                        .entity("Producto con ID " + id + " no encontrado.").build();
+            }
+            return Response.ok(disponibilidad).build();
+        } catch (Exception e) {
+            errorCounter.inc();
+            throw e;
+        }
+    }
+
+    public Response fallbackGetDisponibilidad(Long id) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity("No es posible consultar ahora la disponibilidad del producto con ID " + id)
+                .build();
+    }
+
+    @POST
+    @Path("/disponibilidad/lote")
+    @Retry(delay = 200, delayUnit = ChronoUnit.MILLIS)
+    @Timeout(value = 3, unit = ChronoUnit.SECONDS)
+    @CircuitBreaker(
+            requestVolumeThreshold = 10,
+            delay = 5,
+            delayUnit = ChronoUnit.SECONDS
+    )
+    @Fallback(fallbackMethod = "fallbackPostDisponibilidades")
+    @Timed(name = "checksDisponibilidadLoteTimer", unit = MetricUnits.MILLISECONDS)
+    public Response postDisponibilidades(@Valid LoteRequest request) {
+        if (request.ids().size() > 100) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("El número máximo de productos por lote es 100").build();
+        }
+        try {
+            return Response.ok(catalogoService.obtenerDisponibilidades(request.ids())).build();
+        } catch (Exception e) {
+            errorCounter.inc();
+            throw e;
+        }
+    }
+
+    public Response fallbackPostDisponibilidades(LoteRequest request) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity("No es posible consultar ahora la disponibilidad de los productos")
+                .build();
+    }
+
+    @GET
+    @Path("/sugerencias")
+    @Timed(name = "checksSugerenciasTimer", unit = MetricUnits.MILLISECONDS)
+    public Response getSugerencias(@QueryParam("q") String q,
+                                   @QueryParam("limite") @DefaultValue("10") int limite) {
+        if (limite > 20) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("El número máximo de sugerencias es 20").build();
+        }
+        return Response.ok(catalogoService.obtenerSugerencias(q, limite)).build();
+    }
+
+    @GET
+    @Path("/facetas")
+    @Timed(name = "checksFacetasTimer", unit = MetricUnits.MILLISECONDS)
+    public Response getFacetas() {
+        return Response.ok(catalogoService.obtenerFacetas()).build();
+    }
+
+    @GET
+    @Path("/lote")
+    @Retry(delay = 200, delayUnit = ChronoUnit.MILLIS)
+    @Timeout(value = 3, unit = ChronoUnit.SECONDS)
+    @CircuitBreaker(
+            requestVolumeThreshold = 10,
+            delay = 5,
+            delayUnit = ChronoUnit.SECONDS
+    )
+    @Fallback(fallbackMethod = "fallbackGetProductsByIds")
+    @Timed(name = "checksLoteTimer", unit = MetricUnits.MILLISECONDS)
+    @Counted(name = "performedLoteChecks")
+    public Response getProductsByIds(@QueryParam("ids") List<Long> ids) {
+        return obtenerLote(ids);
+    }
+
+    @POST
+    @Path("/lote")
+    @Retry(delay = 200, delayUnit = ChronoUnit.MILLIS)
+    @Timeout(value = 3, unit = ChronoUnit.SECONDS)
+    @CircuitBreaker(
+            requestVolumeThreshold = 10,
+            delay = 5,
+            delayUnit = ChronoUnit.SECONDS
+    )
+    @Fallback(fallbackMethod = "fallbackPostProductsByIds")
+    @Timed(name = "checksLoteTimer", unit = MetricUnits.MILLISECONDS)
+    @Counted(name = "performedLoteChecks")
+    public Response postProductsByIds(@Valid LoteRequest request) {
+        return obtenerLote(request.ids());
+    }
+
+    private Response obtenerLote(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Debe indicarse al menos un ID de producto.").build();
+        }
+        if (ids.size() > 100) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("El número máximo de productos por lote es 100").build();
+        }
+        try {
+            List<ProductoDTO> productos = catalogoService.obtenerProductosPorIds(ids);
+            return Response.ok(productos).build();
+        } catch (Exception e) {
+            errorCounter.inc();
+            throw e;
+        }
+    }
+
+    public Response fallbackGetProductsByIds(List<Long> ids) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity("Productos no disponibles actualmente. Intente más tarde.")
+                .build();
+    }
+
+    public Response fallbackPostProductsByIds(LoteRequest request) {
+        return fallbackGetProductsByIds(request.ids());
+    }
+
     @POST
     @RolesAllowed({"user","admin"})
     @Path("/reservas")
@@ -181,7 +378,7 @@ public class CatalogoResource {
     @Timeout(value = 5, unit = ChronoUnit.SECONDS) // mayor timeout porque puede procesar varios items
     public Response reservarStockMultiple(@Valid ReservaBatchRequest request) {
         try {
-            CatalogoService.ReservaBatchResult resultado = catalogoService.reservarStockMultiple(request.items());
+            CatalogoService.ReservaBatchResult resultado = catalogoService.reservarStockMultiple(request.items(), request.ordenId());
             if (resultado.reserved()) {
                 return Response.ok().build();
             } else {
@@ -257,9 +454,16 @@ public class CatalogoResource {
             int cantidad
     ) {}
 
+    public record LoteRequest(
+            @NotEmpty
+            List<@NotNull Long> ids
+    ) {}
+
     public record ReservaBatchRequest(
             @NotEmpty
             @Valid
-            List<ReservaItemRequest> items
+            List<ReservaItemRequest> items,
+            // Pedido al que pertenece la reserva; permite cerrar sus retenciones al confirmar o liberar
+            Long ordenId
     ) {}
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package com.Repositorios;
+
+import com.Entidades.EventoStockProcesado;
+import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import org.hibernate.Session;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+@ApplicationScoped
+public class EventoStockProcesadoRepository implements PanacheRepositoryBase<EventoStockProcesado, String> {
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    // Registra las claves en la transacción del llamante y devuelve solo las que no existían. Comprobar y
+    // apuntar es una única sentencia, así que dos consumidores con el mismo evento no lo aplican ambos:
+    // el segundo espera al commit del primero y ve el conflicto.
+    public Set<String> registrarNuevas(Collection<String> claves) {
+        if (claves.isEmpty()) {
+            return new HashSet<>();
+        }
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO evento_stock_procesado (clave, procesado_en) SELECT unnest(?), now() " +
+                            "ON CONFLICT (clave) DO NOTHING RETURNING clave")) {
+                ps.setArray(1, connection.createArrayOf("text", claves.toArray()));
+                Set<String> nuevas = new HashSet<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        nuevas.add(rs.getString(1));
+                    }
+                }
+                return nuevas;
+            }
+        });
+    }
+
+    @Transactional
+    public long purgarAnteriores(LocalDateTime limite) {
+        return delete("procesadoEn < ?1", limite);
+    }
+}
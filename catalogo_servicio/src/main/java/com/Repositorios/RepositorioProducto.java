@@ -1,30 +1,64 @@
 package com.Repositorios;
 
+import com.DTO.DisponibilidadDTO;
+import com.DTO.ProductoDTO;
+import com.DTO.ProductoSnapshotDTO;
 import com.Entidades.Producto;
 import com.Entidades.Valoracion;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import io.quarkus.hibernate.orm.panache.PanacheQuery;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.quarkus.hibernate.orm.panache.PanacheRepository;
-import io.quarkus.panache.common.Page;
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
 import jakarta.transaction.Transactional;
 import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Digits;
 import jakarta.validation.constraints.NotNull;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateHints;
 
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @ApplicationScoped
 public class RepositorioProducto implements PanacheRepository<Producto> {
 
     @PersistenceContext
-    EntityManager entityManager;
+    public EntityManager entityManager;
+
+    // Las lecturas del catálogo solo traen las columnas de ProductoDTO (nada de stock reservado, agregados de
+    // valoraciones ni la columna de búsqueda) y las devuelven como tuplas, sin entidades gestionadas.
+    private static final String COLUMNAS_DTO =
+            "p.id, p.nombre, p.descripcion, p.precio, p.stock, p.categoria, p.imagenURL, p.detalles, p.puntuacion";
+
+    // Lo mismo en SQL; detalles llega como texto y se convierte en aProductoDTO
+    private static final String COLUMNAS_DTO_SQL =
+            "p.id, p.nombre, p.descripcion, p.precio, p.stock, p.categoria, p.imagen_url, " +
+                    "CAST(p.detalles AS text), p.puntuacion";
+
+    private static final String COLUMNAS_SNAPSHOT = "p.id, p.nombre, p.precio, p.stock, p.imagenURL";
+
+    private static final ObjectMapper JSON = new ObjectMapper();
 
     @Transactional
     public void add(Producto producto) {
@@ -60,18 +94,206 @@ public class RepositorioProducto implements PanacheRepository<Producto> {
         return filas > 0;
     }
 
+    public List<ProductoDTO> findDTOsByIds(Collection<Long> ids) {
+        return aProductosDTO(soloLectura(entityManager.createQuery(
+                        "SELECT " + COLUMNAS_DTO + " FROM Producto p WHERE p.id IN :ids", Object[].class))
+                .setParameter("ids", ids)
+                .getResultStream());
+    }
+
+    public ProductoDTO findDTOById(Long id) {
+        return soloLectura(entityManager.createQuery(
+                        "SELECT " + COLUMNAS_DTO + " FROM Producto p WHERE p.id = :id", Object[].class))
+                .setParameter("id", id)
+                .getResultStream()
+                .findFirst()
+                .map(RepositorioProducto::aProductoDTO)
+                .orElse(null);
+    }
+
+    public List<ProductoSnapshotDTO> findSnapshots(Collection<Long> ids) {
+        return soloLectura(entityManager.createQuery(
+                        "SELECT " + COLUMNAS_SNAPSHOT + " FROM Producto p WHERE p.id IN :ids", Object[].class))
+                .setParameter("ids", ids)
+                .getResultStream()
+                .map(RepositorioProducto::aSnapshot)
+                .collect(Collectors.toList());
+    }
+
+    // Recorre el catálogo por ID de limite en limite, sin OFFSET
+    public List<ProductoSnapshotDTO> findSnapshotsDesde(Long despuesDe, int limite) {
+        return soloLectura(entityManager.createQuery(
+                        "SELECT " + COLUMNAS_SNAPSHOT + " FROM Producto p WHERE p.id > :despuesDe ORDER BY p.id",
+                        Object[].class))
+                .setParameter("despuesDe", despuesDe)
+                .setMaxResults(limite)
+                .getResultStream()
+                .map(RepositorioProducto::aSnapshot)
+                .collect(Collectors.toList());
+    }
+
+    // Reserva todas las cantidades con UPDATE condicionales enviados en un único lote JDBC. Las filas se
+    // actualizan en orden de ID para que dos reservas concurrentes las bloqueen siempre en el mismo orden.
+    // Devuelve los IDs que no se han podido reservar; si hay alguno, la transacción queda marcada para
+    // rollback y no se reserva nada.
+    @Transactional
+    public Set<Long> reservarStockAtomico(SortedMap<Long, Integer> cantidades) {
+        Set<Long> fallidos = entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "UPDATE producto SET stock_reservado = stock_reservado + ? " +
+                            "WHERE id = ? AND stock - stock_reservado >= ?")) {
+                for (Map.Entry<Long, Integer> entrada : cantidades.entrySet()) {
+                    ps.setInt(1, entrada.getValue());
+                    ps.setLong(2, entrada.getKey());
+                    ps.setInt(3, entrada.getValue());
+                    ps.addBatch();
+                }
+                int[] filas = ps.executeBatch();
+
+                Set<Long> resultado = new LinkedHashSet<>();
+                int i = 0;
+                for (Long id : cantidades.keySet()) {
+                    if (filas[i++] == 0) {
+                        resultado.add(id);
+                    }
+                }
+                return resultado;
+            }
+        });
+
+        if (!fallidos.isEmpty()) {
+            QuarkusTransaction.setRollbackOnly();
+        }
+        return fallidos;
+    }
+
+    // Bloquea las filas (en orden de ID) hasta el final de la transacción y devuelve su stock disponible.
+    public Map<Long, Integer> bloquearDisponible(Collection<Long> ids) {
+        Map<Long, Integer> disponibles = new HashMap<>();
+        List<?> filas = entityManager.createNativeQuery(
+                        "SELECT id, stock - stock_reservado FROM producto WHERE id IN (:ids) ORDER BY id FOR UPDATE")
+                .setParameter("ids", ids)
+                .getResultList();
+        for (Object fila : filas) {
+            Object[] columnas = (Object[]) fila;
+            disponibles.put(((Number) columnas[0]).longValue(), ((Number) columnas[1]).intValue());
+        }
+        return disponibles;
+    }
+
+    public void sumarStockReservado(SortedMap<Long, Integer> deltas) {
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "UPDATE producto SET stock_reservado = stock_reservado + ? WHERE id = ?")) {
+                for (Map.Entry<Long, Integer> delta : deltas.entrySet()) {
+                    ps.setInt(1, delta.getValue());
+                    ps.setLong(2, delta.getKey());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        });
+    }
+
+    @Transactional
+    public Map<Long, Integer> stockDisponible(Collection<Long> ids) {
+        Map<Long, Integer> disponibles = new HashMap<>();
+        entityManager.createQuery(
+                        "SELECT p.id, p.stock - p.stockReservado FROM Producto p WHERE p.id IN :ids",
+                        Object[].class
+                ).setParameter("ids", ids)
+                .getResultList()
+                .forEach(fila -> disponibles.put((Long) fila[0], ((Number) fila[1]).intValue()));
+        return disponibles;
+    }
+
+    public DisponibilidadDTO findDisponibilidad(Long id) {
+        return soloLectura(entityManager.createQuery(
+                        "SELECT p.stock, p.stock - p.stockReservado FROM Producto p WHERE p.id = :id", Object[].class))
+                .setParameter("id", id)
+                .getResultStream()
+                .findFirst()
+                .map(fila -> new DisponibilidadDTO(id, ((Number) fila[0]).intValue(), ((Number) fila[1]).intValue()))
+                .orElse(null);
+    }
+
+    public List<DisponibilidadDTO> findDisponibilidades(Collection<Long> ids) {
+        return soloLectura(entityManager.createQuery(
+                        "SELECT p.id, p.stock, p.stock - p.stockReservado FROM Producto p WHERE p.id IN :ids",
+                        Object[].class))
+                .setParameter("ids", ids)
+                .getResultStream()
+                .map(fila -> new DisponibilidadDTO((Long) fila[0], ((Number) fila[1]).intValue(),
+                        ((Number) fila[2]).intValue()))
+                .collect(Collectors.toList());
+    }
+
+    public record DeltaStock(int stock, int reservado) {
+        public DeltaStock sumar(DeltaStock otro) {
+            return new DeltaStock(stock + otro.stock, reservado + otro.reservado);
+        }
+    }
+
+    // Un UPDATE relativo por producto, en orden de ID y enviados en un único lote JDBC.
+    public void aplicarDeltasStock(SortedMap<Long, DeltaStock> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "UPDATE producto SET stock = stock + ?, stock_reservado = stock_reservado + ? WHERE id = ?")) {
+                for (Map.Entry<Long, DeltaStock> delta : deltas.entrySet()) {
+                    ps.setInt(1, delta.getValue().stock());
+                    ps.setInt(2, delta.getValue().reservado());
+                    ps.setLong(3, delta.getKey());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        });
+    }
+
+    @Transactional
+    public void ajustarStockReservado(Long id, int delta) {
+        update("stockReservado = stockReservado + ?1 where id = ?2", delta, id);
+    }
+
+    @Transactional
+    public boolean marcarStockDistribuido(Long id, boolean activo) {
+        return update("stockDistribuido = ?1 where id = ?2", activo, id) > 0;
+    }
+
+    @Transactional
+    public List<Long> findIdsStockDistribuido() {
+        return entityManager.createQuery(
+                        "SELECT p.id FROM Producto p WHERE p.stockDistribuido = true", Long.class)
+                .getResultList();
+    }
+
     public Integer contarValoraciones(Long productoId) {
         return entityManager.createQuery(
-                        "SELECT SIZE(p.valoraciones) FROM Producto p WHERE p.id = :id",
+                        "SELECT p.numValoraciones FROM Producto p WHERE p.id = :id",
                         Integer.class
                 ).setParameter("id", productoId)
-                .getSingleResult();
+                .getResultStream()
+                .findFirst()
+                .orElse(0);
+    }
+
+    // Suma la valoración a los agregados del producto en una sola sentencia. En el SET todas las columnas
+    // valen lo que valían antes del UPDATE, así que la media se calcula con la suma y el total ya incrementados.
+    public void sumarValoracion(Long productoId, int puntuacion) {
+        String estrellas = "estrellas" + puntuacion;
+        update("sumaPuntuaciones = sumaPuntuaciones + ?1, numValoraciones = numValoraciones + 1, " +
+                        estrellas + " = " + estrellas + " + 1, " +
+                        "puntuacion = (sumaPuntuaciones + ?1) / (numValoraciones + 1.0) where id = ?2",
+                (long) puntuacion, productoId);
     }
 
     public List<Valoracion> findValoracionesPaginadas(Long idProducto, int page, int size) {
         return getEntityManager()
                 .createQuery(
-                        "SELECT v FROM Producto p JOIN p.valoraciones v WHERE p.id = :idProducto ORDER BY v.fechaCreacion DESC",
+                        "SELECT v FROM Valoracion v WHERE v.producto.id = :idProducto ORDER BY v.fechaCreacion DESC",
                         Valoracion.class
                 )
                 .setParameter("idProducto", idProducto)
@@ -91,14 +313,16 @@ public class RepositorioProducto implements PanacheRepository<Producto> {
         }
     }
 
-    public List<Producto> buscarProductos(int page, int size, String nombre, String categoria, Double precioMin, Double precioMax) {
-        StringBuilder query = new StringBuilder("FROM Producto p WHERE 1=1");
+    public List<ProductoDTO> buscarProductos(int page, int size, String nombre, String categoria, Double precioMin,
+                                             Double precioMax, Map<String, String> detalles) {
+        String consultaTexto = nombre == null ? null : consultaPorPrefijos(nombre);
+        if (consultaTexto != null || !detalles.isEmpty()) {
+            return buscarNativo(page, size, consultaTexto, categoria, precioMin, precioMax, detalles);
+        }
+
+        StringBuilder query = new StringBuilder("SELECT " + COLUMNAS_DTO + " FROM Producto p WHERE 1=1");
         Map<String, Object> params = new HashMap<>();
 
-        if (nombre != null && !nombre.isEmpty()) {
-            query.append(" AND LOWER(p.nombre) LIKE :nombre");
-            params.put("nombre", "%" + nombre.toLowerCase() + "%");
-        }
         if (categoria != null && !categoria.isEmpty()) {
             query.append(" AND LOWER(p.categoria) = :categoria");
             params.put("categoria", categoria.toLowerCase());
@@ -112,9 +336,241 @@ public class RepositorioProducto implements PanacheRepository<Producto> {
             params.put("precioMax", BigDecimal.valueOf(precioMax));
         }
 
-        PanacheQuery<Producto> panacheQuery = find(query.toString(), params)
-                .page(Page.of(page - 1, size));
+        query.append(" ORDER BY p.id");
+
+        TypedQuery<Object[]> consulta = soloLectura(entityManager.createQuery(query.toString(), Object[].class))
+                .setFirstResult((page - 1) * size)
+                .setMaxResults(size);
+        params.forEach(consulta::setParameter);
+        return aProductosDTO(consulta.getResultStream());
+    }
+
+    @Transactional
+    public Map<String, Long> contarPorCategoria() {
+        Map<String, Long> totales = new HashMap<>();
+        entityManager.createQuery("SELECT p.categoria, COUNT(p) FROM Producto p GROUP BY p.categoria", Object[].class)
+                .getResultList()
+                .forEach(fila -> totales.put((String) fila[0], (Long) fila[1]));
+        return totales;
+    }
+
+    // Devuelve limites.size() + 1 totales: el rango i contiene los precios con exactamente i límites por debajo
+    @Transactional
+    public long[] contarPorRangoPrecio(List<BigDecimal> limites) {
+        String array = limites.stream().map(BigDecimal::toPlainString).collect(Collectors.joining(",", "ARRAY[", "]"));
+        long[] totales = new long[limites.size() + 1];
+        List<?> filas = entityManager.createNativeQuery(
+                        "SELECT width_bucket(precio, " + array + "::numeric[]), COUNT(*) FROM producto GROUP BY 1")
+                .getResultList();
+        for (Object fila : filas) {
+            Object[] columnas = (Object[]) fila;
+            totales[((Number) columnas[0]).intValue()] = ((Number) columnas[1]).longValue();
+        }
+        return totales;
+    }
+
+    // Recorre el índice (puntuacion, id) hacia atrás, sin ordenar la tabla
+    @Transactional
+    public List<Object[]> findMejorValorados(int limite) {
+        return entityManager.createQuery(
+                        "SELECT p.id, p.nombre, p.puntuacion FROM Producto p ORDER BY p.puntuacion DESC, p.id DESC",
+                        Object[].class)
+                .setMaxResults(limite)
+                .getResultList();
+    }
+
+    public enum OrdenListado {
+        ID("id", false),
+        PRECIO("precio", false),
+        PUNTUACION("puntuacion", true),
+        NOMBRE("nombre", false);
+
+        public final String columna;
+        public final boolean descendente;
+
+        OrdenListado(String columna, boolean descendente) {
+            this.columna = columna;
+            this.descendente = descendente;
+        }
+    }
+
+    // Paginación por clave: la página empieza justo después de (ultimoValor, ultimoId) y se recorre el índice
+    // (columna, id) del orden elegido, así que el coste no depende de lo profunda que sea la página. Con
+    // ultimoId null se devuelve la primera.
+    public List<ProductoDTO> buscarProductosDesde(int limite, String nombre, String categoria, Double precioMin,
+                                                  Double precioMax, Map<String, String> detalles, OrdenListado orden,
+                                                  Object ultimoValor, Long ultimoId) {
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMNAS_DTO_SQL + " FROM producto p WHERE 1=1");
+        Map<String, Object> params = new HashMap<>();
+
+        String consultaTexto = nombre == null ? null : consultaPorPrefijos(nombre);
+        if (consultaTexto != null) {
+            sql.append(" AND p.busqueda @@ to_tsquery('spanish', :texto)");
+            params.put("texto", consultaTexto);
+        }
+        filtrosNativos(sql, params, categoria, precioMin, precioMax, detalles);
+
+        String comparacion = orden.descendente ? " < " : " > ";
+        String direccion = orden.descendente ? " DESC" : "";
+        if (ultimoId != null) {
+            if (orden == OrdenListado.ID) {
+                sql.append(" AND p.id").append(comparacion).append(":ultimoId");
+            } else {
+                sql.append(" AND (p.").append(orden.columna).append(", p.id)").append(comparacion)
+                        .append("(:ultimoValor, :ultimoId)");
+                params.put("ultimoValor", ultimoValor);
+            }
+            params.put("ultimoId", ultimoId);
+        }
+        if (orden == OrdenListado.ID) {
+            sql.append(" ORDER BY p.id").append(direccion);
+        } else {
+            sql.append(" ORDER BY p.").append(orden.columna).append(direccion).append(", p.id").append(direccion);
+        }
+        sql.append(" LIMIT :limite");
+        params.put("limite", limite);
+
+        return consultarNativo(sql.toString(), params);
+    }
+
+    // Búsqueda por texto (columna e índice GIN creados por IndicesBusqueda, ordenada por relevancia y después
+    // por ID) o por detalles
+    private List<ProductoDTO> buscarNativo(int page, int size, String consultaTexto, String categoria,
+                                           Double precioMin, Double precioMax, Map<String, String> detalles) {
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMNAS_DTO_SQL + " FROM producto p");
+        Map<String, Object> params = new HashMap<>();
+        if (consultaTexto != null) {
+            sql.append(", to_tsquery('spanish', :texto) q WHERE p.busqueda @@ q");
+            params.put("texto", consultaTexto);
+        } else {
+            sql.append(" WHERE 1=1");
+        }
+        filtrosNativos(sql, params, categoria, precioMin, precioMax, detalles);
+        sql.append(consultaTexto != null ? " ORDER BY ts_rank(p.busqueda, q) DESC, p.id" : " ORDER BY p.id");
+        sql.append(" LIMIT :limite OFFSET :desde");
+        params.put("limite", size);
+        params.put("desde", (page - 1) * size);
+
+        return consultarNativo(sql.toString(), params);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ProductoDTO> consultarNativo(String sql, Map<String, Object> params) {
+        Query query = soloLectura(entityManager.createNativeQuery(sql));
+        params.forEach(query::setParameter);
+        return aProductosDTO((Stream<Object[]>) query.getResultStream());
+    }
+
+    // Sin flush previo: estas consultas no dependen de cambios pendientes del contexto de persistencia
+    private static <Q extends Query> Q soloLectura(Q query) {
+        query.setHint(HibernateHints.HINT_READ_ONLY, true);
+        query.setHint(HibernateHints.HINT_FLUSH_MODE, FlushMode.MANUAL);
+        return query;
+    }
+
+    private static List<ProductoDTO> aProductosDTO(Stream<Object[]> filas) {
+        try (filas) {
+            return filas.map(RepositorioProducto::aProductoDTO).collect(Collectors.toList());
+        }
+    }
+
+    private static ProductoSnapshotDTO aSnapshot(Object[] fila) {
+        return new ProductoSnapshotDTO(((Number) fila[0]).longValue(), (String) fila[1], (BigDecimal) fila[2],
+                fila[3] == null ? null : ((Number) fila[3]).intValue(), (String) fila[4]);
+    }
+
+    // Mismo orden de columnas que COLUMNAS_DTO y COLUMNAS_DTO_SQL
+    private static ProductoDTO aProductoDTO(Object[] fila) {
+        ProductoDTO producto = new ProductoDTO(
+                ((Number) fila[0]).longValue(), (String) fila[1], (String) fila[2], (BigDecimal) fila[3],
+                ((Number) fila[4]).intValue(), (String) fila[5], (String) fila[6], leerDetalles(fila[7]));
+        producto.setPuntuacion(((Number) fila[8]).doubleValue());
+        return producto;
+    }
+
+    private static JsonNode leerDetalles(Object detalles) {
+        if (!(detalles instanceof String texto)) {
+            return (JsonNode) detalles;
+        }
+        try {
+            return JSON.readTree(texto);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Detalles de producto no válidos: " + texto, e);
+        }
+    }
+
+    private static void filtrosNativos(StringBuilder sql, Map<String, Object> params, String categoria,
+                                       Double precioMin, Double precioMax, Map<String, String> detalles) {
+        if (categoria != null && !categoria.isEmpty()) {
+            sql.append(" AND lower(p.categoria) = :categoria");
+            params.put("categoria", categoria.toLowerCase());
+        }
+        if (precioMin != null) {
+            sql.append(" AND p.precio >= :precioMin");
+            params.put("precioMin", BigDecimal.valueOf(precioMin));
+        }
+        if (precioMax != null) {
+            sql.append(" AND p.precio <= :precioMax");
+            params.put("precioMax", BigDecimal.valueOf(precioMax));
+        }
+        // Un @> por filtro, en orden de ruta para que el SQL sea siempre el mismo
+        int n = 0;
+        for (Map.Entry<String, String> detalle : new TreeMap<>(detalles).entrySet()) {
+            List<ObjectNode> alternativas = contencionDetalles(detalle.getKey(), detalle.getValue());
+            sql.append(" AND (");
+            for (int i = 0; i < alternativas.size(); i++) {
+                String nombre = "detalle" + n + "_" + i;
+                sql.append(i == 0 ? "" : " OR ").append("p.detalles @> CAST(:").append(nombre).append(" AS jsonb)");
+                params.put(nombre, alternativas.get(i).toString());
+            }
+            sql.append(")");
+            n++;
+        }
+    }
+
+    // ("pantalla.pulgadas", "6.1") -> {"pantalla": {"pulgadas": 6.1}} y {"pantalla": {"pulgadas": "6.1"}}.
+    // @> compara también el tipo y el parámetro de la URL no lo dice, así que un valor que también se lee
+    // como número o booleano sin cambiar ("0123" no) se busca en las dos formas.
+    public static List<ObjectNode> contencionDetalles(String ruta, String valor) {
+        List<ObjectNode> alternativas = new ArrayList<>(2);
+        JsonNode tipado = valorTipado(valor);
+        if (tipado != null) {
+            alternativas.add(documentoDetalle(ruta, tipado));
+        }
+        alternativas.add(documentoDetalle(ruta, JsonNodeFactory.instance.textNode(valor)));
+        return alternativas;
+    }
+
+    private static ObjectNode documentoDetalle(String ruta, JsonNode valor) {
+        ObjectNode raiz = JsonNodeFactory.instance.objectNode();
+        String[] claves = ruta.split("\\.");
+        ObjectNode nodo = raiz;
+        for (int i = 0; i < claves.length - 1; i++) {
+            nodo = nodo.putObject(claves[i]);
+        }
+        nodo.set(claves[claves.length - 1], valor);
+        return raiz;
+    }
+
+    private static JsonNode valorTipado(String valor) {
+        if ("true".equals(valor) || "false".equals(valor)) {
+            return JsonNodeFactory.instance.booleanNode(Boolean.parseBoolean(valor));
+        }
+        try {
+            BigDecimal numero = new BigDecimal(valor);
+            return numero.toString().equals(valor) ? JsonNodeFactory.instance.numberNode(numero) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
-        return panacheQuery.list();
+    // "zapato roj" -> "zapato:* & roj:*", para que se encuentre lo que el usuario aún está escribiendo. Solo
+    // se conservan letras y dígitos, así que el texto nunca llega a to_tsquery con operadores propios.
+    public static String consultaPorPrefijos(String texto) {
+        String consulta = Arrays.stream(texto.toLowerCase().split("[^\\p{L}\\p{N}]+"))
+                .filter(termino -> !termino.isEmpty())
+                .map(termino -> termino + ":*")
+                .collect(Collectors.joining(" & "));
+        return consulta.isEmpty() ? null : consulta;
     }
 }
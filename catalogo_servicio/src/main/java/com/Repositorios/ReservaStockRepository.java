@@ -0,0 +1,155 @@
+package com.Repositorios;
+
+import com.Entidades.ReservaStock;
+import io.quarkus.hibernate.orm.panache.PanacheRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.Session;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+@ApplicationScoped
+public class ReservaStockRepository implements PanacheRepository<ReservaStock> {
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @ConfigProperty(name = "catalogo.reservas.ttl", defaultValue = "30m")
+    Duration ttl;
+
+    // Inserta las retenciones en un único lote JDBC dentro de la transacción de la reserva y les asigna su ID.
+    public void registrar(List<ReservaStock> reservas) {
+        if (reservas.isEmpty()) {
+            return;
+        }
+        Timestamp expiraEn = Timestamp.valueOf(LocalDateTime.now().plus(ttl));
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO reserva_stock (orden_id, producto_id, cantidad, expira_en, estado) " +
+                            "VALUES (?, ?, ?, ?, 'ACTIVA')", new String[]{"id"})) {
+                for (ReservaStock reserva : reservas) {
+                    ps.setObject(1, reserva.getOrdenId());
+                    ps.setLong(2, reserva.getProductoId());
+                    ps.setInt(3, reserva.getCantidad());
+                    ps.setTimestamp(4, expiraEn);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                try (ResultSet ids = ps.getGeneratedKeys()) {
+                    for (ReservaStock reserva : reservas) {
+                        if (ids.next()) {
+                            reserva.setId(ids.getLong(1));
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    // Libera las retenciones indicadas que sigan activas (no las que ya se hayan confirmado o vencido) y devuelve
+    // sus unidades por producto
+    public Map<Long, Integer> liberar(Collection<ReservaStock> reservas) {
+        List<Long> ids = reservas.stream().map(ReservaStock::getId).filter(Objects::nonNull).toList();
+        if (ids.isEmpty()) {
+            return new HashMap<>();
+        }
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "WITH liberadas AS (" +
+                            "UPDATE reserva_stock SET estado = 'LIBERADA' WHERE id = ANY(?) AND estado = 'ACTIVA' " +
+                            "RETURNING producto_id, cantidad) " +
+                            "SELECT producto_id, SUM(cantidad) FROM liberadas GROUP BY producto_id")) {
+                ps.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+                return leerUnidadesPorProducto(ps);
+            }
+        });
+    }
+
+    public Set<Long> ordenesConRetenciones(Collection<Long> ordenIds) {
+        if (ordenIds.isEmpty()) {
+            return Set.of();
+        }
+        return new HashSet<>(entityManager.createQuery(
+                        "SELECT DISTINCT r.ordenId FROM ReservaStock r WHERE r.ordenId IN :ordenes", Long.class)
+                .setParameter("ordenes", ordenIds)
+                .getResultList());
+    }
+
+    // Cierra las retenciones activas de los pedidos y devuelve, por pedido y producto, las unidades que seguían
+    // retenidas. Las que ya habían vencido no aparecen: el barrido ya devolvió esas unidades.
+    public Map<Long, Map<Long, Integer>> cerrar(Collection<Long> ordenIds, ReservaStock.Estado estado) {
+        if (ordenIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "WITH cerradas AS (" +
+                            "UPDATE reserva_stock SET estado = ? WHERE orden_id = ANY(?) AND estado = 'ACTIVA' " +
+                            "RETURNING orden_id, producto_id, cantidad) " +
+                            "SELECT orden_id, producto_id, SUM(cantidad) FROM cerradas GROUP BY orden_id, producto_id")) {
+                ps.setString(1, estado.name());
+                ps.setArray(2, connection.createArrayOf("bigint", ordenIds.toArray()));
+                Map<Long, Map<Long, Integer>> unidades = new HashMap<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        unidades.computeIfAbsent(rs.getLong(1), orden -> new HashMap<>())
+                                .put(rs.getLong(2), rs.getInt(3));
+                    }
+                }
+                return unidades;
+            }
+        });
+    }
+
+    // Marca como vencidas hasta 'lote' retenciones caducadas y devuelve las unidades a liberar por producto.
+    // SKIP LOCKED evita esperar por retenciones que una confirmación esté cerrando a la vez.
+    public Map<Long, Integer> expirar(int lote) {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "WITH vencidas AS (" +
+                            "SELECT id FROM reserva_stock WHERE estado = 'ACTIVA' AND expira_en <= ? " +
+                            "ORDER BY expira_en LIMIT ? FOR UPDATE SKIP LOCKED), " +
+                            "expiradas AS (" +
+                            "UPDATE reserva_stock r SET estado = 'EXPIRADA' FROM vencidas v WHERE r.id = v.id " +
+                            "RETURNING r.producto_id, r.cantidad) " +
+                            "SELECT producto_id, SUM(cantidad) FROM expiradas GROUP BY producto_id")) {
+                ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+                ps.setInt(2, lote);
+                return leerUnidadesPorProducto(ps);
+            }
+        });
+    }
+
+    @Transactional
+    public long unidadesRetenidas() {
+        return entityManager.createQuery(
+                        "SELECT COALESCE(SUM(r.cantidad), 0) FROM ReservaStock r WHERE r.estado = :estado", Long.class)
+                .setParameter("estado", ReservaStock.Estado.ACTIVA)
+                .getSingleResult();
+    }
+
+    private Map<Long, Integer> leerUnidadesPorProducto(PreparedStatement ps) throws SQLException {
+        Map<Long, Integer> unidades = new HashMap<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                unidades.put(rs.getLong(1), rs.getInt(2));
+            }
+        }
+        return unidades;
+    }
+}
@@ -4,9 +4,26 @@ import com.Entidades.Valoracion;
 import io.quarkus.hibernate.orm.panache.PanacheRepository;
 import jakarta.enterprise.context.ApplicationScoped;
 
+import java.time.LocalDateTime;
+
 @ApplicationScoped
 public class ValoracionRepository implements PanacheRepository<Valoracion> {
     public boolean existsByProductoIdAndUsuarioId(Long productoId, String usuarioId) {
         return count("producto.id = ?1 and idUsuario = ?2", productoId, usuarioId) > 0;
     }
+
+    // Inserta la fila sin pasar por la colección del producto. Devuelve false si el producto no existe o si
+    // el usuario ya lo había valorado (p.ej. un evento repetido).
+    public boolean insertarSiNoExiste(Long productoId, String idUsuario, int puntuacion, String comentario) {
+        return getEntityManager().createNativeQuery(
+                        "INSERT INTO valoracion (id_usuario, id_producto, puntuacion, comentario, fecha_creacion) " +
+                                "SELECT ?1, p.id, ?2, ?3, ?4 FROM producto p WHERE p.id = ?5 " +
+                                "ON CONFLICT (id_usuario, id_producto) DO NOTHING")
+                .setParameter(1, idUsuario)
+                .setParameter(2, puntuacion)
+                .setParameter(3, comentario)
+                .setParameter(4, LocalDateTime.now())
+                .setParameter(5, productoId)
+                .executeUpdate() > 0;
+    }
 }
\ No newline at end of file
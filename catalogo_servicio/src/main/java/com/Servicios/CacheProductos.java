@@ -0,0 +1,227 @@
+package com.Servicios;
+
+import com.DTO.ProductoDTO;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.cache.redis.RedisCache;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Caché de productos en dos niveles: una copia local en cada réplica (L1) delante de procducto-cache en Redis
+// (L2), que comparten todas. Las invalidaciones se publican por Redis pub/sub para que cada réplica borre su
+// copia local al momento. Pub/sub no guarda mensajes, así que si una réplica pierde la conexión puede quedarse
+// con un producto desactualizado como mucho durante la expiración de la copia local.
+//
+// Los fallos se cargan con CargaUnica, así que tras invalidar un producto muy consultado solo una petición va
+// a Redis y a la base de datos; mientras tanto el resto recibe la copia que había antes de la invalidación.
+//
+// Los IDs que no existen se recuerdan un rato (caché negativa) para que los carritos antiguos o quien repita
+// IDs borrados no lleguen a la base de datos en cada petición. Se olvidan con la misma invalidación, que
+// también se lanza al crear un producto.
+@ApplicationScoped
+public class CacheProductos {
+
+    // El carrito escucha el mismo canal para su propia caché de productos
+    static final String CANAL_INVALIDACIONES = "productos-invalidados";
+
+    @Inject
+    RedisDataSource redisDataSource;
+
+    @Inject
+    @CacheName("procducto-cache")
+    Cache cacheRedis;
+
+    @Inject
+    TransactionSynchronizationRegistry transacciones;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry registry;
+
+    @ConfigProperty(name = "catalogo.cache.local.max-entradas", defaultValue = "10000")
+    long maxEntradas;
+
+    @ConfigProperty(name = "catalogo.cache.local.expiracion", defaultValue = "30s")
+    Duration expiracion;
+
+    // Cuánto se puede seguir sirviendo la copia anterior a una invalidación mientras se recarga
+    @ConfigProperty(name = "catalogo.cache.local.anterior", defaultValue = "10s")
+    Duration duracionAnterior;
+
+    private com.github.benmanes.caffeine.cache.Cache<Long, ProductoDTO> local;
+
+    private com.github.benmanes.caffeine.cache.Cache<Long, ProductoDTO> anteriores;
+
+    @ConfigProperty(name = "catalogo.cache.local.ausentes-expiracion", defaultValue = "30s")
+    Duration expiracionAusentes;
+
+    private com.github.benmanes.caffeine.cache.Cache<Long, Boolean> ausentes;
+
+    private CargaUnica<Long, ProductoDTO> cargas;
+
+    // Se incrementa con cada invalidación. Una carga que empezó antes no se guarda en local, porque
+    // podría haber leído el producto anterior al cambio.
+    private final AtomicLong version = new AtomicLong();
+
+    private Counter aciertosL1;
+    private Counter fallosL1;
+    private Counter aciertosL2;
+    private Counter fallosL2;
+    private Counter invalidacionesRecibidas;
+    private Counter anterioresServidos;
+    private Counter consultasAusentes;
+    private Counter aciertosAusentes;
+
+    void onStart(@Observes StartupEvent ev) {
+        local = Caffeine.newBuilder()
+                .maximumSize(maxEntradas)
+                .expireAfterWrite(expiracion)
+                .build();
+        anteriores = Caffeine.newBuilder()
+                .maximumSize(maxEntradas)
+                .expireAfterWrite(duracionAnterior)
+                .build();
+        ausentes = Caffeine.newBuilder()
+                .maximumSize(maxEntradas)
+                .expireAfterWrite(expiracionAusentes)
+                .build();
+        cargas = new CargaUnica<>(registry.counter("catalogo_cache_producto_cargas_agrupadas_total"));
+        aciertosL1 = registry.counter("catalogo_cache_producto_l1_aciertos_total");
+        fallosL1 = registry.counter("catalogo_cache_producto_l1_fallos_total");
+        aciertosL2 = registry.counter("catalogo_cache_producto_l2_aciertos_total");
+        fallosL2 = registry.counter("catalogo_cache_producto_l2_fallos_total");
+        invalidacionesRecibidas = registry.counter("catalogo_cache_producto_invalidaciones_recibidas_total");
+        anterioresServidos = registry.counter("catalogo_cache_producto_anteriores_servidos_total");
+        consultasAusentes = registry.counter("catalogo_cache_producto_ausentes_consultas_total");
+        aciertosAusentes = registry.counter("catalogo_cache_producto_ausentes_aciertos_total");
+
+        try {
+            redisDataSource.pubsub(Long.class).subscribe(CANAL_INVALIDACIONES, id -> {
+                retirar(id);
+                invalidacionesRecibidas.inc();
+            });
+        } catch (Exception e) {
+            // Sin suscripción la copia local solo se renueva al expirar
+            System.err.println("No se ha podido suscribir al canal " + CANAL_INVALIDACIONES + ": " + e.getMessage());
+        }
+    }
+
+    public ProductoDTO obtener(Long id, Function<Long, ProductoDTO> cargar) {
+        ProductoDTO producto = local.getIfPresent(id);
+        if (producto != null) {
+            aciertosL1.inc();
+            return producto;
+        }
+        fallosL1.inc();
+
+        consultasAusentes.inc();
+        if (ausentes.getIfPresent(id) != null) {
+            aciertosAusentes.inc();
+            return null;
+        }
+
+        ProductoDTO anterior = anteriores.getIfPresent(id);
+        if (anterior != null && cargas.cargando(id)) {
+            anterioresServidos.inc();
+            return anterior;
+        }
+        return cargas.cargar(id, clave -> cargarDeRedisOBaseDeDatos(clave, cargar));
+    }
+
+    private ProductoDTO cargarDeRedisOBaseDeDatos(Long id, Function<Long, ProductoDTO> cargar) {
+        long versionLeida = version.get();
+        RedisCache redis = cacheRedis.as(RedisCache.class);
+        ProductoDTO producto = redis.getOrNull(id, ProductoDTO.class).await().indefinitely();
+        if (producto != null) {
+            aciertosL2.inc();
+        } else {
+            fallosL2.inc();
+            producto = cargar.apply(id);
+            if (producto == null) {
+                if (version.get() == versionLeida) {
+                    ausentes.put(id, Boolean.TRUE);
+                }
+                return null;
+            }
+            // Si ha habido una invalidación mientras se leía, la fila leída puede ser la anterior al cambio y
+            // no se comparte. Se vuelve a mirar después de escribir por si la invalidación llegó entre medias.
+            if (version.get() != versionLeida) {
+                return producto;
+            }
+            redis.put(id, producto).await().indefinitely();
+            if (version.get() != versionLeida) {
+                redis.invalidate(id).await().indefinitely();
+                return producto;
+            }
+        }
+
+        if (version.get() == versionLeida) {
+            local.put(id, producto);
+            anteriores.invalidate(id);
+        }
+        return producto;
+    }
+
+    @Gauge(name = "catalogo_cache_producto_ausentes_ratio", unit = MetricUnits.PERCENT, absolute = true)
+    public double getRatioAusentes() {
+        long consultas = consultasAusentes == null ? 0 : consultasAusentes.getCount();
+        return consultas == 0 ? 0.0 : 100.0 * aciertosAusentes.getCount() / consultas;
+    }
+
+    // Dentro de una transacción se espera a que termine: si se borrara antes, otra petición podría volver a
+    // cachear la fila que aún no se ha confirmado.
+    public void invalidar(Long id) {
+        if (transacciones.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            transacciones.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int estado) {
+                    invalidarAhora(id);
+                }
+            });
+        } else {
+            invalidarAhora(id);
+        }
+    }
+
+    // La copia local pasa a anteriores, de donde se sirve solo mientras otra petición recarga el producto
+    private void retirar(Long id) {
+        version.incrementAndGet();
+        ausentes.invalidate(id);
+        ProductoDTO previo = local.getIfPresent(id);
+        local.invalidate(id);
+        if (previo != null) {
+            anteriores.put(id, previo);
+        }
+    }
+
+    private void invalidarAhora(Long id) {
+        retirar(id);
+        try {
+            cacheRedis.invalidate(id).await().indefinitely();
+            redisDataSource.pubsub(Long.class).publish(CANAL_INVALIDACIONES, id);
+        } catch (Exception e) {
+            System.err.println("Error invalidando el producto " + id + " en Redis: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.Servicios;
+
+import org.eclipse.microprofile.metrics.Counter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// Una sola carga en curso por clave: quien pide una clave que ya se está cargando espera a ese mismo
+// resultado en lugar de lanzar otra consulta. Si la carga falla, todos los que esperaban reciben el error.
+public class CargaUnica<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> enCurso = new ConcurrentHashMap<>();
+
+    private final Counter agrupadas;
+
+    public CargaUnica(Counter agrupadas) {
+        this.agrupadas = agrupadas;
+    }
+
+    public boolean cargando(K clave) {
+        return enCurso.containsKey(clave);
+    }
+
+    public V cargar(K clave, Function<K, V> cargador) {
+        CompletableFuture<V> propia = new CompletableFuture<>();
+        CompletableFuture<V> existente = enCurso.putIfAbsent(clave, propia);
+        if (existente != null) {
+            agrupadas.inc();
+            return esperar(existente);
+        }
+
+        try {
+            V valor = cargador.apply(clave);
+            propia.complete(valor);
+            return valor;
+        } catch (RuntimeException e) {
+            propia.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(clave, propia);
+        }
+    }
+
+    private V esperar(CompletableFuture<V> carga) {
+        try {
+            return carga.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
+        }
+    }
+}
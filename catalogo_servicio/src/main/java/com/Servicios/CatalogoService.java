@@ -1,27 +1,40 @@
 package com.Servicios;
 
+import com.DTO.DisponibilidadDTO;
+import com.DTO.FacetasDTO;
+import com.DTO.PaginaCursorDTO;
 import com.DTO.ProductoDTO;
 import com.DTO.StockEventDTO;
+import com.DTO.SugerenciaDTO;
 import com.DTO.ValoracionDTO;
 import com.Entidades.Producto;
+import com.Entidades.ReservaStock;
 import com.Entidades.Valoracion;
 import com.DTO.ProductEventDTO;
 import com.Recursos.CatalogoResource;
+import com.Repositorios.EventoStockProcesadoRepository;
 import com.Repositorios.RepositorioProducto;
+import com.Repositorios.ReservaStockRepository;
 import com.Repositorios.ValoracionRepository;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.cache.CacheInvalidate;
 import io.quarkus.cache.CacheKey;
 import io.quarkus.cache.CacheResult;
+import io.quarkus.scheduler.Scheduled;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.reactive.messaging.Channel;
 import org.eclipse.microprofile.reactive.messaging.Emitter;
 import org.eclipse.microprofile.reactive.messaging.Incoming;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -42,22 +55,110 @@ public class CatalogoService {
     @Channel("product-events")
     public Emitter<ProductEventDTO> productEventEmitter;
 
+    @Inject
+    public StockDistribuido stockDistribuido;
+
+    @Inject
+    public CombinadorReservas combinadorReservas;
+
+    @Inject
+    public ReservaStockRepository reservaStockRepository;
+
+    @Inject
+    public EventoStockProcesadoRepository eventoProcesadoRepository;
+
+    @Inject
+    public FacetasCatalogo facetasCatalogo;
+
+    @Inject
+    public SugerenciasCatalogo sugerenciasCatalogo;
+
+    @Inject
+    public CacheProductos cacheProductos;
+
+    @Inject
+    public SnapshotsProductos snapshotsProductos;
+
+    @ConfigProperty(name = "catalogo.eventos.retencion", defaultValue = "7d")
+    Duration retencionEventos;
+
+    // Con false se usa la reserva anterior sobre entidades gestionadas (solo para comparar rendimiento)
+    @ConfigProperty(name = "catalogo.reservas.atomicas", defaultValue = "true")
+    public boolean reservasAtomicas;
+
     public List<ProductoDTO> obtenerProductos(int page, int size, String nombre, String categoria, Double precioMin, Double precioMax) {
-        List<Producto> productos = productoRepository.buscarProductos(page, size, nombre, categoria, precioMin, precioMax);
-
-        // Mapeo a DTO
-        return productos.stream()
-                .map(p -> new ProductoDTO(
-                        p.getId(),
-                        p.getNombre(),
-                        p.getDescripcion(),
-                        p.getPrecio(),
-                        p.getStock(),
-                        p.getCategoria(),
-                        p.getImagenURL(),
-                        p.getDetalles()
-                ))
-                .collect(Collectors.toList());
+        return obtenerProductos(page, size, nombre, categoria, precioMin, precioMax, Map.of());
+    }
+
+    // detalles: filtros sobre los atributos del producto, p.ej. {"color": "Negro"} (ver RepositorioProducto)
+    public List<ProductoDTO> obtenerProductos(int page, int size, String nombre, String categoria, Double precioMin,
+                                              Double precioMax, Map<String, String> detalles) {
+        // El repositorio ya proyecta sobre ProductoDTO
+        return productoRepository.buscarProductos(page, size, nombre, categoria, precioMin, precioMax, detalles);
+    }
+
+    // Listado paginado por cursor. Se pide un producto de más para saber si hay página siguiente sin contar.
+    public PaginaCursorDTO<ProductoDTO> obtenerProductosPorCursor(int size, String nombre, String categoria,
+                                                                  Double precioMin, Double precioMax,
+                                                                  Map<String, String> detalles,
+                                                                  String orden, String cursor) {
+        RepositorioProducto.OrdenListado ordenListado;
+        try {
+            ordenListado = orden == null || orden.isBlank()
+                    ? RepositorioProducto.OrdenListado.ID
+                    : RepositorioProducto.OrdenListado.valueOf(orden.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException("Orden no válido: " + orden, Response.Status.BAD_REQUEST);
+        }
+
+        PosicionCursor desde = cursor == null || cursor.isBlank()
+                ? new PosicionCursor(null, null)
+                : decodificarCursor(cursor, ordenListado);
+
+        List<ProductoDTO> productos = productoRepository.buscarProductosDesde(size + 1, nombre, categoria,
+                precioMin, precioMax, detalles, ordenListado, desde.valor(), desde.id());
+
+        String siguiente = null;
+        if (productos.size() > size) {
+            productos = productos.subList(0, size);
+            siguiente = codificarCursor(ordenListado, productos.get(size - 1));
+        }
+        return new PaginaCursorDTO<>(productos, siguiente);
+    }
+
+    private record PosicionCursor(Object valor, Long id) {}
+
+    // El cursor es "ORDEN|id|valor" en base64url: el valor va al final porque un nombre puede contener '|'
+    private static String codificarCursor(RepositorioProducto.OrdenListado orden, ProductoDTO ultimo) {
+        String valor = switch (orden) {
+            case ID -> "";
+            case PRECIO -> ultimo.getPrecio().toPlainString();
+            case PUNTUACION -> Double.toString(ultimo.getPuntuacion());
+            case NOMBRE -> ultimo.getNombre();
+        };
+        String texto = orden.name() + "|" + ultimo.getId() + "|" + valor;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static PosicionCursor decodificarCursor(String cursor, RepositorioProducto.OrdenListado orden) {
+        try {
+            String[] partes = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                    .split("\\|", 3);
+            if (partes.length != 3 || !partes[0].equals(orden.name())) {
+                throw new IllegalArgumentException();
+            }
+            Object valor = switch (orden) {
+                case ID -> null;
+                case PRECIO -> new BigDecimal(partes[2]);
+                case PUNTUACION -> Double.valueOf(partes[2]);
+                case NOMBRE -> partes[2];
+            };
+            return new PosicionCursor(valor, Long.valueOf(partes[1]));
+        } catch (IllegalArgumentException e) {
+            // Cubre también los NumberFormatException de un valor o ID manipulados
+            throw new WebApplicationException("Cursor no válido para el orden " + orden.name().toLowerCase(),
+                    Response.Status.BAD_REQUEST);
+        }
     }
 
     @Transactional
@@ -68,6 +169,12 @@ public class CatalogoService {
                 producto.getCategoria(), producto.getImagenUrl(), producto.getDetalles()
         );
         productoRepository.persist(nuevoProducto);
+        facetasCatalogo.productoAgregado(nuevoProducto.getCategoria(), nuevoProducto.getPrecio());
+        sugerenciasCatalogo.indexar(nuevoProducto.getId(), nuevoProducto.getNombre(), nuevoProducto.getPuntuacion());
+        // Por si alguien había pedido ya este ID y está en la caché negativa de alguna réplica o del carrito
+        invalidarCacheProducto(nuevoProducto.getId());
+        emitirEventoProducto(new ProductEventDTO(nuevoProducto.getId(), "CREATED", null));
+        snapshotsProductos.publicar(List.of(nuevoProducto.getId()));
 
         return new ProductoDTO(nuevoProducto.getId(),nuevoProducto.getNombre(), nuevoProducto.getDescripcion(),
                 nuevoProducto.getPrecio(), nuevoProducto.getStock(),
@@ -75,26 +182,56 @@ public class CatalogoService {
     }
 
     public boolean actualizarProducto(Long id, ProductoDTO producto) {
+        // La actualización no cambia la categoría, solo puede mover el producto de rango de precio
+        Producto anterior = productoRepository.findById(id);
+        BigDecimal precioAnterior = anterior != null ? anterior.getPrecio() : null;
         boolean actualizado = productoRepository.updateProduct(
                 id, producto.getNombre(), producto.getDescripcion(),
                 producto.getPrecio(), producto.getStock(), producto.getDetalles()
         );
         if (actualizado) {
+            if (precioAnterior != null) {
+                facetasCatalogo.precioCambiado(precioAnterior, producto.getPrecio());
+            }
+            sugerenciasCatalogo.renombrar(id, producto.getNombre());
+            stockDistribuido.recargar(id);
             ProductEventDTO event = new ProductEventDTO(id, "UPDATED", null);
             emitirEventoProducto(event);
             invalidarCacheProducto(id);
+            invalidarCacheDisponibilidad(id);
+            snapshotsProductos.publicar(List.of(id));
             return true;
         } else {
             return false;
         }
     }
 
+    public List<SugerenciaDTO> obtenerSugerencias(String texto, int limite) {
+        return sugerenciasCatalogo.sugerir(texto, limite);
+    }
+
+    public FacetasDTO obtenerFacetas() {
+        return facetasCatalogo.consultar();
+    }
+
+    public boolean cambiarStockDistribuido(Long id, boolean activo) {
+        return stockDistribuido.cambiarEstado(id, activo);
+    }
+
     public boolean eliminarProducto(Long id) {
+        Producto anterior = productoRepository.findById(id);
         boolean eliminado = productoRepository.eliminarPorId(id);
         if (eliminado) {
+            if (anterior != null) {
+                facetasCatalogo.productoEliminado(anterior.getCategoria(), anterior.getPrecio());
+            }
+            sugerenciasCatalogo.olvidar(id);
+            stockDistribuido.olvidar(id);
             invalidarCacheProducto(id);
+            invalidarCacheDisponibilidad(id);
             ProductEventDTO event = new ProductEventDTO(id, "DELETED", null);
             emitirEventoProducto(event);
+            snapshotsProductos.publicar(List.of(id));
         }
         return eliminado;
     }
@@ -113,8 +250,107 @@ public class CatalogoService {
         return false;
     }
 
-    @Transactional
     public ReservaBatchResult reservarStockMultiple(List<CatalogoResource.ReservaItemRequest> items) {
+        return reservarStockMultiple(items, null);
+    }
+
+    // Los productos gestionados por StockDistribuido se reservan primero en memoria; si después falla la
+    // reserva del resto en base de datos, se devuelven. Cada reserva queda registrada con su vencimiento
+    // (ver ExpiracionReservas) para que no retenga stock indefinidamente si el pedido no llega a cerrarse.
+    public ReservaBatchResult reservarStockMultiple(List<CatalogoResource.ReservaItemRequest> items, Long ordenId) {
+        if (!stockDistribuido.activo()) {
+            return reservarStockEnBD(items, ordenId);
+        }
+
+        SortedMap<Long, Integer> enMemoria = new TreeMap<>();
+        List<CatalogoResource.ReservaItemRequest> resto = new ArrayList<>();
+        for (CatalogoResource.ReservaItemRequest item : items) {
+            if (stockDistribuido.gestiona(item.productoId())) {
+                enMemoria.merge(item.productoId(), item.cantidad(), Integer::sum);
+            } else {
+                resto.add(item);
+            }
+        }
+        if (enMemoria.isEmpty()) {
+            return reservarStockEnBD(items, ordenId);
+        }
+
+        List<FailedItem> fallos = stockDistribuido.reservar(enMemoria);
+        if (!fallos.isEmpty()) {
+            return new ReservaBatchResult(false, fallos);
+        }
+
+        ReservaBatchResult resultado;
+        try {
+            resultado = resto.isEmpty()
+                    ? new ReservaBatchResult(true, Collections.emptyList())
+                    : reservarStockEnBD(resto, ordenId);
+            if (resultado.reserved()) {
+                registrarRetenciones(ordenId, enMemoria);
+            }
+        } catch (RuntimeException e) {
+            enMemoria.forEach(stockDistribuido::devolver);
+            throw e;
+        }
+        if (!resultado.reserved()) {
+            enMemoria.forEach(stockDistribuido::devolver);
+        }
+        return resultado;
+    }
+
+    public ReservaBatchResult reservarStockEnBD(List<CatalogoResource.ReservaItemRequest> items, Long ordenId) {
+        if (combinadorReservas.habilitado) {
+            return combinadorReservas.reservar(items, ordenId);
+        }
+        return reservarStockIndividual(items, ordenId);
+    }
+
+    @Transactional
+    public ReservaBatchResult reservarStockIndividual(List<CatalogoResource.ReservaItemRequest> items, Long ordenId) {
+        ReservaBatchResult resultado = reservasAtomicas
+                ? reservarStockAtomico(items)
+                : reservarStockConEntidades(items);
+        if (resultado.reserved()) {
+            SortedMap<Long, Integer> cantidades = new TreeMap<>();
+            items.forEach(item -> cantidades.merge(item.productoId(), item.cantidad(), Integer::sum));
+            registrarRetenciones(ordenId, cantidades);
+        }
+        return resultado;
+    }
+
+    @Transactional
+    public void registrarRetenciones(Long ordenId, Map<Long, Integer> cantidades) {
+        List<ReservaStock> reservas = new ArrayList<>();
+        cantidades.forEach((productoId, cantidad) -> reservas.add(new ReservaStock(ordenId, productoId, cantidad)));
+        reservaStockRepository.registrar(reservas);
+    }
+
+    private ReservaBatchResult reservarStockAtomico(List<CatalogoResource.ReservaItemRequest> items) {
+        SortedMap<Long, Integer> cantidades = new TreeMap<>();
+        for (CatalogoResource.ReservaItemRequest item : items) {
+            cantidades.merge(item.productoId(), item.cantidad(), Integer::sum);
+        }
+
+        Set<Long> fallidos = productoRepository.reservarStockAtomico(cantidades);
+        if (fallidos.isEmpty()) {
+            return new ReservaBatchResult(true, Collections.emptyList());
+        }
+
+        Map<Long, Integer> disponibles = productoRepository.stockDisponible(fallidos);
+        List<FailedItem> failures = new ArrayList<>();
+        for (Long id : fallidos) {
+            Integer disponible = disponibles.get(id);
+            if (disponible == null) {
+                failures.add(new FailedItem(id, "Producto no encontrado"));
+            } else {
+                failures.add(new FailedItem(id,
+                        "Stock insuficiente. Disponible=" + disponible + ", pedido=" + cantidades.get(id)));
+            }
+        }
+        return new ReservaBatchResult(false, failures);
+    }
+
+    private ReservaBatchResult reservarStockConEntidades(List<CatalogoResource.ReservaItemRequest> items) {
         List<Long> ids = items.stream()
                 .map(CatalogoResource.ReservaItemRequest::productoId)
                 .distinct()
@@ -159,39 +395,117 @@ public class CatalogoService {
 
     public record ReservaBatchResult(boolean reserved, List<FailedItem> failures) {}
 
+    // Los eventos llegan en lotes de hasta max.poll.records mensajes. Se aplican en una sola transacción y los
+    // offsets se confirman al volver el método, es decir, después del commit: si algo falla se relee el lote.
     @Incoming("eventos-stock")
+    @Transactional
+    public void procesarEventosStock(List<String> mensajes) {
+        List<StockEventDTO> eventos = new ArrayList<>(mensajes.size());
+        for (String mensaje : mensajes) {
+            try {
+                eventos.add(objectMapper.readValue(mensaje, StockEventDTO.class));
+            } catch (JsonProcessingException e) {
+                // Un mensaje corrupto no debe bloquear el resto del lote en cada relectura
+                System.err.println("Evento de stock descartado por no ser válido: " + mensaje);
+            }
+        }
+        aplicarEventosStock(eventos);
+    }
+
     @Transactional
     public void procesarEventoStock(String mensaje) throws JsonProcessingException {
-        StockEventDTO evento = objectMapper.readValue(mensaje, StockEventDTO.class);
-        switch (evento.tipo()) {
-            case "LIBERAR_STOCK":
-                evento.productos().forEach((productoId, cantidad) -> {
-                    Producto producto = productoRepository.findById(productoId);
-                    if (producto != null) {
-                        producto.setStockReservado(
-                                producto.getStockReservado() - cantidad
-                        );
-                        productoRepository.persist(producto);
-                    }
-                });
-                break;
-
-            case "CONFIRMAR_COMPRA":
-                evento.productos().forEach((productoId, cantidad) -> {
-                    Producto producto = productoRepository.findById(productoId);
-                    if (producto != null) {
-                        producto.setStock(producto.getStock() - cantidad);
-                        producto.setStockReservado(
-                                producto.getStockReservado() - cantidad
-                        );
-                        productoRepository.persist(producto);
-                    }
-                });
-                break;
+        aplicarEventosStock(List.of(objectMapper.readValue(mensaje, StockEventDTO.class)));
+    }
+
+    private void aplicarEventosStock(List<StockEventDTO> eventos) {
+        List<StockEventDTO> validos = eventos.stream()
+                .filter(e -> "LIBERAR_STOCK".equals(e.tipo()) || "CONFIRMAR_COMPRA".equals(e.tipo()))
+                .toList();
+        if (validos.isEmpty()) {
+            return;
         }
 
-        // Invalidar el caché de del producto afectado
-        evento.productos().keySet().forEach(this::invalidarCacheProducto);
+        // Un reenvío del outbox o un rebalanceo del consumidor puede repetir eventos ya aplicados. Las claves se
+        // apuntan en la misma transacción que los cambios de stock: o quedan ambos o ninguno.
+        Set<String> nuevas = eventoProcesadoRepository.registrarNuevas(validos.stream()
+                .map(CatalogoService::claveEvento).filter(Objects::nonNull).collect(Collectors.toSet()));
+        validos = validos.stream().filter(evento -> {
+            String clave = claveEvento(evento);
+            if (clave == null || nuevas.remove(clave)) {
+                return true;
+            }
+            System.out.println("Evento de stock " + clave + " ya procesado; se ignora");
+            return false;
+        }).toList();
+        if (validos.isEmpty()) {
+            return;
+        }
+
+        // Si el pedido registró sus retenciones, solo se descuenta de stockReservado lo que sigue retenido:
+        // lo que ya venció lo devolvió ExpiracionReservas y restarlo otra vez lo liberaría dos veces.
+        Set<Long> conRetenciones = reservaStockRepository.ordenesConRetenciones(validos.stream()
+                .map(StockEventDTO::ordenId).filter(Objects::nonNull).collect(Collectors.toSet()));
+        Map<Long, Map<Long, Integer>> liberadas = reservaStockRepository.cerrar(
+                ordenesConRetenciones(validos, conRetenciones, true), ReservaStock.Estado.LIBERADA);
+        Map<Long, Map<Long, Integer>> confirmadas = reservaStockRepository.cerrar(
+                ordenesConRetenciones(validos, conRetenciones, false), ReservaStock.Estado.CONFIRMADA);
+
+        // Se acumula todo el lote por producto: un pedido repetido solo cuenta sus retenciones una vez
+        SortedMap<Long, RepositorioProducto.DeltaStock> deltas = new TreeMap<>();
+        Map<Long, Integer> liberadasLibro = new HashMap<>();
+        Set<Long> recargarLibro = new HashSet<>();
+        for (StockEventDTO evento : validos) {
+            boolean liberar = "LIBERAR_STOCK".equals(evento.tipo());
+            Map<Long, Integer> retenidas = evento.ordenId() != null && conRetenciones.contains(evento.ordenId())
+                    ? Objects.requireNonNullElse((liberar ? liberadas : confirmadas).remove(evento.ordenId()), Map.of())
+                    : null;
+
+            evento.productos().forEach((productoId, cantidad) -> {
+                int reservado = retenidas != null ? retenidas.getOrDefault(productoId, 0) : cantidad;
+                int vendido = liberar ? 0 : cantidad;
+                if (!liberar && reservado < cantidad) {
+                    System.err.println("Compra confirmada para el pedido " + evento.ordenId() + " con la reserva del producto "
+                            + productoId + " ya vencida; se descuenta del stock sin retención previa");
+                    recargarLibro.add(productoId);
+                }
+                deltas.merge(productoId, new RepositorioProducto.DeltaStock(-vendido, -reservado),
+                        RepositorioProducto.DeltaStock::sumar);
+                if (liberar) {
+                    liberadasLibro.merge(productoId, reservado, Integer::sum);
+                }
+            });
+        }
+
+        // Actualizaciones relativas: no pisan los volcados del libro de stock ni otras escrituras concurrentes
+        productoRepository.aplicarDeltasStock(deltas);
+        liberadasLibro.forEach(stockDistribuido::stockLiberado);
+        recargarLibro.forEach(stockDistribuido::recargar);
+
+        // Las ventas solo cambian el stock: el resto del producto sigue en procducto-cache
+        deltas.keySet().forEach(this::invalidarCacheDisponibilidad);
+        // El stock de la réplica del carrito es orientativo, pero se mantiene al día con las ventas
+        snapshotsProductos.publicar(deltas.keySet());
+    }
+
+    // Sin ordenId no hay forma de reconocer un duplicado y el evento se aplica siempre
+    private static String claveEvento(StockEventDTO evento) {
+        return evento.ordenId() == null ? null : evento.tipo() + ":" + evento.ordenId();
+    }
+
+    @Scheduled(every = "${catalogo.eventos.purga:1h}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void purgarEventosProcesados() {
+        long purgados = eventoProcesadoRepository.purgarAnteriores(LocalDateTime.now().minus(retencionEventos));
+        if (purgados > 0) {
+            System.out.println("Purgados " + purgados + " eventos de stock procesados");
+        }
+    }
+
+    private Set<Long> ordenesConRetenciones(List<StockEventDTO> eventos, Set<Long> conRetenciones, boolean liberar) {
+        return eventos.stream()
+                .filter(e -> "LIBERAR_STOCK".equals(e.tipo()) == liberar)
+                .map(StockEventDTO::ordenId)
+                .filter(ordenId -> ordenId != null && conRetenciones.contains(ordenId))
+                .collect(Collectors.toSet());
     }
 
     @Incoming("valoraciones-in")
@@ -201,21 +515,20 @@ public class CatalogoService {
             ValoracionDTO valoracionDTO = objectMapper.readValue(mensaje, ValoracionDTO.class);
 
             System.out.println("Obtenida la siguiente valoración: " + valoracionDTO);
-            Producto producto = productoRepository.findById(valoracionDTO.idProducto());
-            if (producto == null) {
-                throw new IllegalArgumentException("Producto no encontrado con ID: " + valoracionDTO.idProducto());
+            if (valoracionDTO.puntuacion() < 1 || valoracionDTO.puntuacion() > 5) {
+                throw new IllegalArgumentException("Puntuación fuera de rango: " + valoracionDTO.puntuacion());
             }
 
-            Valoracion valoracionEntity = new Valoracion();
-            valoracionEntity.setProducto(producto);
-            valoracionEntity.setIdUsuario(valoracionDTO.idUsuario());
-            valoracionEntity.setPuntuacion(valoracionDTO.puntuacion());
-            valoracionEntity.setComentario(valoracionDTO.comentario());
-            valoracionEntity.setFechaCreacion(LocalDateTime.now());
-
-            producto.agregarValoracion(valoracionEntity);
-
-            actualizarPuntuacionProducto(producto, valoracionDTO.puntuacion());
+            // Se inserta la fila y se actualizan los agregados del producto en SQL: el coste no depende de
+            // cuántas valoraciones tenga ya el producto
+            boolean insertada = valoracionRepository.insertarSiNoExiste(valoracionDTO.idProducto(),
+                    valoracionDTO.idUsuario(), valoracionDTO.puntuacion(), valoracionDTO.comentario());
+            if (!insertada) {
+                System.out.println("Valoración ignorada: el producto " + valoracionDTO.idProducto()
+                        + " no existe o el usuario ya lo había valorado");
+                return;
+            }
+            productoRepository.sumarValoracion(valoracionDTO.idProducto(), valoracionDTO.puntuacion());
 
             invalidarCacheNumValoraciones(valoracionDTO.idProducto());
             invalidarCacheProducto(valoracionDTO.idProducto());
@@ -237,16 +550,6 @@ public class CatalogoService {
                 .collect(Collectors.toList());
     }
 
-    @Transactional
-    public void actualizarPuntuacionProducto(Producto producto, int puntuacion) {
-        Integer totalValoraciones = productoRepository.contarValoraciones(producto.getId());
-        System.out.println("Total de valoraciones para el producto " + producto.getId() + ": " + totalValoraciones);
-        System.out.println("Puntuación actual: " + producto.getPuntuacion());
-        System.out.println("Nueva puntuación a insertar: " + puntuacion);
-        producto.actualizarPuntuacion(puntuacion, totalValoraciones);
-        System.out.println("Puntuación actualizada: " + producto.getPuntuacion());
-    }
-
     @Transactional
     @CacheResult(cacheName = "num-valoracion-cache")
     public Integer contarValoracionesPorProducto(Long idProducto) {
@@ -256,24 +559,34 @@ public class CatalogoService {
     @CacheInvalidate(cacheName = "num-valoracion-cache")
     protected void invalidarCacheNumValoraciones(@CacheKey Long idProducto) {}
 
-    @CacheResult(cacheName = "procducto-cache")
     public ProductoDTO obtenerProductoPorId(Long id) {
-        Producto producto = productoRepository.findById(id);
-        if(producto == null) {
-            return null;
-        } else {
-            ProductoDTO productoDTO = new ProductoDTO(
-                    producto.getId(),producto.getNombre(), producto.getDescripcion(),
-                    producto.getPrecio(), producto.getStock(), producto.getCategoria(),
-                    producto.getImagenURL(), producto.getDetalles()
-            );
-            productoDTO.setPuntuacion(producto.getPuntuacion());
-            return productoDTO;
-        }
+        return cacheProductos.obtener(id, productoRepository::findDTOById);
     }
 
-    @CacheInvalidate(cacheName = "procducto-cache")
-    protected void invalidarCacheProducto(@CacheKey Long id) {}
+    public List<ProductoDTO> obtenerProductosPorIds(Collection<Long> ids) {
+        return productoRepository.findDTOsByIds(new HashSet<>(ids));
+    }
+
+    // Borra el producto de la copia local de todas las réplicas y de Redis (ver CacheProductos)
+    protected void invalidarCacheProducto(Long id) {
+        cacheProductos.invalidar(id);
+    }
+
+    // El stock cambia con cada venta, así que va en su propia caché de vida corta y no en procducto-cache.
+    // El stock de ProductoDTO es el de la última vez que se cargó el producto.
+    @CacheResult(cacheName = "disponibilidad-cache")
+    public DisponibilidadDTO obtenerDisponibilidad(Long id) {
+        return productoRepository.findDisponibilidad(id);
+    }
+
+    @CacheInvalidate(cacheName = "disponibilidad-cache")
+    protected void invalidarCacheDisponibilidad(@CacheKey Long id) {}
+
+    // Para los carritos, que comprueban todas sus líneas a la vez. Una sola consulta por clave primaria,
+    // sin pasar por disponibilidad-cache; los IDs que no existen no aparecen.
+    public List<DisponibilidadDTO> obtenerDisponibilidades(List<Long> ids) {
+        return productoRepository.findDisponibilidades(ids);
+    }
 
     public void emitirEventoProducto(ProductEventDTO event) {
         productEventEmitter.send(event);
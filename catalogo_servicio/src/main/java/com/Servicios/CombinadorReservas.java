@@ -0,0 +1,257 @@
+package com.Servicios;
+
+import com.Recursos.CatalogoResource;
+import com.Entidades.ReservaStock;
+import com.Repositorios.RepositorioProducto;
+import com.Repositorios.ReservaStockRepository;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Timer;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Agrupa las reservas que llegan dentro de una ventana corta (tiempo o número de peticiones) y las aplica en
+// una sola transacción: se bloquean las filas afectadas en orden de ID, cada petición se acepta o rechaza por
+// separado contra el disponible en memoria y al final se suman los deltas de las aceptadas en un lote JDBC.
+// Así N reservas concurrentes cuestan un commit en lugar de N.
+@ApplicationScoped
+public class CombinadorReservas {
+
+    @Inject
+    public RepositorioProducto productoRepository;
+
+    @Inject
+    public ReservaStockRepository reservaStockRepository;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry registry;
+
+    @ConfigProperty(name = "catalogo.reservas.combinador.enabled", defaultValue = "false")
+    public boolean habilitado;
+
+    @ConfigProperty(name = "catalogo.reservas.combinador.ventana", defaultValue = "2ms")
+    Duration ventana;
+
+    @ConfigProperty(name = "catalogo.reservas.combinador.max-peticiones", defaultValue = "64")
+    int maxPeticiones;
+
+    // Tiene que ser menor que el timeout del carrito hacia el catálogo (3s): así el carrito recibe el 503 en
+    // lugar de rendirse antes y dejar una reserva aplicada para un pedido que ya ha descartado
+    @ConfigProperty(name = "catalogo.reservas.combinador.espera-maxima", defaultValue = "2s")
+    Duration esperaMaxima;
+
+    private final BlockingQueue<Peticion> cola = new LinkedBlockingQueue<>();
+
+    private volatile boolean parado;
+
+    private Thread hilo;
+
+    private Histogram tamanioLote;
+
+    private Timer esperaEnCola;
+
+    public static final class Peticion {
+        final SortedMap<Long, Integer> cantidades = new TreeMap<>();
+        final CompletableFuture<CatalogoService.ReservaBatchResult> resultado = new CompletableFuture<>();
+        final long encolada = System.nanoTime();
+        final Long ordenId;
+        // Filas de reserva_stock de la petición si se acepta, para poder deshacerla si nadie la espera ya
+        final List<ReservaStock> retenciones = new ArrayList<>();
+
+        public Peticion(List<CatalogoResource.ReservaItemRequest> items, Long ordenId) {
+            this.ordenId = ordenId;
+            items.forEach(item -> cantidades.merge(item.productoId(), item.cantidad(), Integer::sum));
+        }
+
+        public CompletableFuture<CatalogoService.ReservaBatchResult> resultado() {
+            return resultado;
+        }
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!habilitado) {
+            return;
+        }
+        tamanioLote = registry.histogram("catalogo_reservas_lote_tamanio");
+        esperaEnCola = registry.timer("catalogo_reservas_espera_cola");
+
+        hilo = new Thread(this::bucle, "combinador-reservas");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        parado = true;
+        if (hilo != null) {
+            hilo.interrupt();
+        }
+    }
+
+    public CatalogoService.ReservaBatchResult reservar(List<CatalogoResource.ReservaItemRequest> items, Long ordenId) {
+        Peticion peticion = new Peticion(items, ordenId);
+        cola.add(peticion);
+        try {
+            return peticion.resultado.get(esperaMaxima.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Si aún no se ha procesado ya no se aplicará; si se estaba aplicando, entregar la deshace
+            peticion.resultado.cancel(false);
+            throw new WebApplicationException("Tiempo de espera agotado reservando stock",
+                    Response.Status.SERVICE_UNAVAILABLE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebApplicationException("Reserva interrumpida", Response.Status.SERVICE_UNAVAILABLE);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void bucle() {
+        List<Peticion> lote = new ArrayList<>(maxPeticiones);
+        while (!parado) {
+            try {
+                Peticion primera = cola.take();
+                lote.add(primera);
+                long limite = primera.encolada + ventana.toNanos();
+                while (lote.size() < maxPeticiones) {
+                    cola.drainTo(lote, maxPeticiones - lote.size());
+                    long restante = limite - System.nanoTime();
+                    if (lote.size() >= maxPeticiones || restante <= 0) {
+                        break;
+                    }
+                    Peticion siguiente = cola.poll(restante, TimeUnit.NANOSECONDS);
+                    if (siguiente == null) {
+                        break;
+                    }
+                    lote.add(siguiente);
+                }
+
+                long ahora = System.nanoTime();
+                tamanioLote.update(lote.size());
+                lote.forEach(p -> esperaEnCola.update(Duration.ofNanos(ahora - p.encolada)));
+
+                try {
+                    entregar(lote, procesarLote(lote));
+                } catch (Exception e) {
+                    lote.forEach(p -> p.resultado.completeExceptionally(e));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    // Se entrega con la transacción ya confirmada. Si el llamante se ha cansado de esperar entre tanto, el
+    // carrito ya ha dado el pedido por fallido, así que su reserva se deshace en lugar de dejarla retenida
+    // hasta que venza.
+    public void entregar(List<Peticion> lote, List<CatalogoService.ReservaBatchResult> resultados) {
+        List<ReservaStock> huerfanas = new ArrayList<>();
+        for (int i = 0; i < lote.size(); i++) {
+            Peticion peticion = lote.get(i);
+            CatalogoService.ReservaBatchResult resultado = resultados.get(i);
+            if (resultado != null && !peticion.resultado.complete(resultado) && resultado.reserved()) {
+                huerfanas.addAll(peticion.retenciones);
+            }
+        }
+        if (!huerfanas.isEmpty()) {
+            try {
+                deshacer(huerfanas);
+            } catch (Exception e) {
+                // Siguen registradas como activas: el barrido las liberará al vencer
+                System.err.println("No se han podido deshacer reservas abandonadas: " + e.getMessage());
+            }
+        }
+    }
+
+    // Devuelve el resultado de cada petición en el mismo orden; las que ya habían expirado no se aplican
+    // y reciben null. ArC intercepta la autoinvocación, así que cada lote tiene su propia transacción.
+    @Transactional
+    public List<CatalogoService.ReservaBatchResult> procesarLote(List<Peticion> lote) {
+        List<CatalogoService.ReservaBatchResult> resultados = new ArrayList<>(lote.size());
+        TreeSet<Long> ids = new TreeSet<>();
+        lote.stream().filter(p -> !p.resultado.isDone()).forEach(p -> ids.addAll(p.cantidades.keySet()));
+        if (ids.isEmpty()) {
+            lote.forEach(p -> resultados.add(null));
+            return resultados;
+        }
+        Map<Long, Integer> disponibles = productoRepository.bloquearDisponible(ids);
+
+        SortedMap<Long, Integer> deltas = new TreeMap<>();
+        List<ReservaStock> retenciones = new ArrayList<>();
+        for (Peticion peticion : lote) {
+            if (peticion.resultado.isDone()) {
+                resultados.add(null);
+                continue;
+            }
+            List<CatalogoService.FailedItem> fallos = new ArrayList<>();
+            peticion.cantidades.forEach((id, cantidad) -> {
+                Integer disponible = disponibles.get(id);
+                if (disponible == null) {
+                    fallos.add(new CatalogoService.FailedItem(id, "Producto no encontrado"));
+                } else if (disponible < cantidad) {
+                    fallos.add(new CatalogoService.FailedItem(id,
+                            "Stock insuficiente. Disponible=" + disponible + ", pedido=" + cantidad));
+                }
+            });
+
+            if (fallos.isEmpty()) {
+                peticion.cantidades.forEach((id, cantidad) -> {
+                    disponibles.merge(id, -cantidad, Integer::sum);
+                    deltas.merge(id, cantidad, Integer::sum);
+                    peticion.retenciones.add(new ReservaStock(peticion.ordenId, id, cantidad));
+                });
+                retenciones.addAll(peticion.retenciones);
+                resultados.add(new CatalogoService.ReservaBatchResult(true, Collections.emptyList()));
+            } else {
+                resultados.add(new CatalogoService.ReservaBatchResult(false, fallos));
+            }
+        }
+
+        if (!deltas.isEmpty()) {
+            productoRepository.sumarStockReservado(deltas);
+            reservaStockRepository.registrar(retenciones);
+        }
+        return resultados;
+    }
+
+    // Solo se devuelven las unidades de las retenciones que seguían activas
+    @Transactional
+    public void deshacer(List<ReservaStock> retenciones) {
+        Map<Long, Integer> liberadas = reservaStockRepository.liberar(retenciones);
+        if (liberadas.isEmpty()) {
+            return;
+        }
+        SortedMap<Long, Integer> negativas = new TreeMap<>();
+        liberadas.forEach((id, cantidad) -> negativas.put(id, -cantidad));
+        productoRepository.sumarStockReservado(negativas);
+    }
+}
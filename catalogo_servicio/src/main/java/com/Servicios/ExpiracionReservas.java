@@ -0,0 +1,82 @@
+package com.Servicios;
+
+import com.Repositorios.RepositorioProducto;
+import com.Repositorios.ReservaStockRepository;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Devuelve al disponible las unidades de reservas que nadie ha confirmado ni liberado antes de su vencimiento
+// (pagos abandonados o fallidos). Recorre el índice (estado, expira_en) en lotes, cada uno en su transacción.
+@ApplicationScoped
+public class ExpiracionReservas {
+
+    @Inject
+    ReservaStockRepository reservaStockRepository;
+
+    @Inject
+    RepositorioProducto productoRepository;
+
+    @Inject
+    StockDistribuido stockDistribuido;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry registry;
+
+    @ConfigProperty(name = "catalogo.reservas.barrido.lote", defaultValue = "500")
+    int tamanioLote;
+
+    private final AtomicLong unidadesRetenidas = new AtomicLong();
+
+    private Counter unidadesExpiradas;
+
+    @PostConstruct
+    public void init() {
+        unidadesExpiradas = registry.counter("catalogo_reservas_unidades_expiradas_total");
+    }
+
+    @Scheduled(every = "${catalogo.reservas.barrido:30s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void barrer() {
+        Map<Long, Integer> liberadas;
+        do {
+            liberadas = expirarLote();
+            liberadas.forEach((productoId, cantidad) -> {
+                stockDistribuido.stockLiberado(productoId, cantidad);
+                unidadesExpiradas.inc(cantidad);
+            });
+        } while (!liberadas.isEmpty());
+
+        unidadesRetenidas.set(reservaStockRepository.unidadesRetenidas());
+    }
+
+    @Transactional
+    public Map<Long, Integer> expirarLote() {
+        Map<Long, Integer> liberadas = reservaStockRepository.expirar(tamanioLote);
+        if (!liberadas.isEmpty()) {
+            SortedMap<Long, Integer> deltas = new TreeMap<>();
+            liberadas.forEach((productoId, cantidad) -> deltas.put(productoId, -cantidad));
+            productoRepository.sumarStockReservado(deltas);
+        }
+        return liberadas;
+    }
+
+    // Se actualiza en cada barrido
+    @Gauge(name = "catalogo_reservas_unidades_retenidas", unit = MetricUnits.NONE, absolute = true)
+    public long getUnidadesRetenidas() {
+        return unidadesRetenidas.get();
+    }
+}
@@ -0,0 +1,132 @@
+package com.Servicios;
+
+import com.DTO.FacetasDTO;
+import com.Repositorios.RepositorioProducto;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Número de productos por categoría y por rango de precio, en memoria para no agrupar la tabla de productos
+// en cada listado. Se construye desde la base de datos al arrancar y CatalogoService lo actualiza al crear,
+// modificar o borrar productos. Una reconstrucción periódica corrige lo que se desvíe (transacciones
+// deshechas después de contarlas o cambios hechos por otras réplicas).
+@ApplicationScoped
+public class FacetasCatalogo {
+
+    @Inject
+    public RepositorioProducto productoRepository;
+
+    // Límites inferiores de los rangos a partir del primero, que empieza en 0
+    @ConfigProperty(name = "catalogo.facetas.limites-precio", defaultValue = "10,25,50,100,250,500,1000")
+    public List<BigDecimal> limitesPrecio;
+
+    private volatile Recuento recuento;
+
+    private static final class Recuento {
+        final List<BigDecimal> limites;
+        final Map<String, LongAdder> categorias = new ConcurrentHashMap<>();
+        final AtomicLongArray precios;
+
+        Recuento(List<BigDecimal> limites) {
+            this.limites = limites;
+            this.precios = new AtomicLongArray(limites.size() + 1);
+        }
+
+        // Mismo criterio que width_bucket en Postgres: número de límites menores o iguales que el precio
+        int rango(BigDecimal precio) {
+            int rango = 0;
+            while (rango < limites.size() && precio.compareTo(limites.get(rango)) >= 0) {
+                rango++;
+            }
+            return rango;
+        }
+
+        void sumar(String categoria, BigDecimal precio, int delta) {
+            categorias.computeIfAbsent(categoria, c -> new LongAdder()).add(delta);
+            precios.addAndGet(rango(precio), delta);
+        }
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        try {
+            reconstruir();
+        } catch (Exception e) {
+            // Hasta la siguiente reconstrucción se devuelven facetas vacías
+            System.err.println("No se han podido calcular las facetas del catálogo: " + e.getMessage());
+        }
+    }
+
+    @Scheduled(every = "${catalogo.facetas.reconstruccion:10m}", delayed = "${catalogo.facetas.reconstruccion:10m}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void reconstruir() {
+        Recuento nuevo = new Recuento(List.copyOf(limitesPrecio));
+        productoRepository.contarPorCategoria().forEach((categoria, total) ->
+                nuevo.categorias.computeIfAbsent(categoria, c -> new LongAdder()).add(total));
+        long[] porRango = productoRepository.contarPorRangoPrecio(nuevo.limites);
+        for (int i = 0; i < porRango.length; i++) {
+            nuevo.precios.set(i, porRango[i]);
+        }
+        recuento = nuevo;
+    }
+
+    public void productoAgregado(String categoria, BigDecimal precio) {
+        Recuento actual = recuento;
+        if (actual != null) {
+            actual.sumar(categoria, precio, 1);
+        }
+    }
+
+    public void productoEliminado(String categoria, BigDecimal precio) {
+        Recuento actual = recuento;
+        if (actual != null) {
+            actual.sumar(categoria, precio, -1);
+        }
+    }
+
+    public void precioCambiado(BigDecimal anterior, BigDecimal nuevo) {
+        Recuento actual = recuento;
+        if (actual == null) {
+            return;
+        }
+        int rangoAnterior = actual.rango(anterior);
+        int rangoNuevo = actual.rango(nuevo);
+        if (rangoAnterior != rangoNuevo) {
+            actual.precios.decrementAndGet(rangoAnterior);
+            actual.precios.incrementAndGet(rangoNuevo);
+        }
+    }
+
+    public FacetasDTO consultar() {
+        Recuento actual = recuento;
+        if (actual == null) {
+            return new FacetasDTO(Map.of(), List.of());
+        }
+
+        Map<String, Long> categorias = new TreeMap<>();
+        actual.categorias.forEach((categoria, total) -> {
+            if (total.sum() > 0) {
+                categorias.put(categoria, total.sum());
+            }
+        });
+
+        List<FacetasDTO.RangoPrecio> precios = new ArrayList<>(actual.precios.length());
+        for (int i = 0; i < actual.precios.length(); i++) {
+            BigDecimal desde = i == 0 ? BigDecimal.ZERO : actual.limites.get(i - 1);
+            BigDecimal hasta = i < actual.limites.size() ? actual.limites.get(i) : null;
+            precios.add(new FacetasDTO.RangoPrecio(desde, hasta, actual.precios.get(i)));
+        }
+        return new FacetasDTO(categorias, precios);
+    }
+}
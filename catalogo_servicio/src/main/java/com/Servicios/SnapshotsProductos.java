@@ -0,0 +1,162 @@
+package com.Servicios;
+
+import com.DTO.ProductoSnapshotDTO;
+import com.Repositorios.RepositorioProducto;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.reactive.messaging.kafka.Record;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.reactive.messaging.Channel;
+import org.eclipse.microprofile.reactive.messaging.Emitter;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Publica el estado completo de cada producto en productos-snapshot, un topic compactado con el ID como clave,
+// del que el carrito construye su réplica local del catálogo. Un producto borrado se publica como tombstone
+// (valor nulo) para que la compactación acabe retirándolo. Dentro de una transacción el producto se lee antes
+// del commit y se envía solo si se confirma.
+@ApplicationScoped
+public class SnapshotsProductos {
+
+    static final String TOPIC = "productos-snapshot";
+
+    @Inject
+    @Channel("productos-snapshot")
+    Emitter<Record<String, ProductoSnapshotDTO>> emitter;
+
+    @Inject
+    RepositorioProducto productoRepository;
+
+    @Inject
+    TransactionSynchronizationRegistry transacciones;
+
+    @ConfigProperty(name = "kafka.bootstrap.servers")
+    String bootstrapServers;
+
+    @ConfigProperty(name = "catalogo.snapshots.crear-topic", defaultValue = "true")
+    boolean crearTopic;
+
+    @ConfigProperty(name = "catalogo.snapshots.particiones", defaultValue = "3")
+    int particiones;
+
+    @ConfigProperty(name = "catalogo.snapshots.replicas", defaultValue = "1")
+    short replicas;
+
+    // La carga inicial del topic la hace solo la réplica que lo crea, que es una aunque arranquen varias a la
+    // vez. Con esto a true cada arranque vuelve a publicar todo el catálogo: solo para rellenar a mano un topic
+    // creado por fuera o que ha perdido mensajes, porque los carritos ven crecer el lag hasta que lo leen.
+    @ConfigProperty(name = "catalogo.snapshots.publicar-al-arrancar", defaultValue = "false")
+    boolean publicarAlArrancar;
+
+    @ConfigProperty(name = "catalogo.snapshots.lote", defaultValue = "200")
+    int lote;
+
+    void onStart(@Observes StartupEvent ev) {
+        boolean creado = crearTopic && crearTopicCompactado();
+        if (creado || publicarAlArrancar) {
+            try {
+                publicarTodos();
+            } catch (Exception e) {
+                System.err.println("No se ha podido publicar el catálogo en " + TOPIC + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // true solo si lo ha creado esta llamada
+    private boolean crearTopicCompactado() {
+        Properties props = new Properties();
+        props.put("bootstrap.servers", bootstrapServers);
+        props.put("request.timeout.ms", "5000");
+
+        try (AdminClient adminClient = AdminClient.create(props)) {
+            NewTopic topic = new NewTopic(TOPIC, particiones, replicas)
+                    .configs(Map.of("cleanup.policy", "compact"));
+            adminClient.createTopics(List.of(topic)).all().get(10, TimeUnit.SECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof TopicExistsException)) {
+                System.err.println("No se ha podido crear el topic " + TOPIC + ": " + e.getCause().getMessage());
+            }
+        } catch (Exception e) {
+            System.err.println("No se ha podido crear el topic " + TOPIC + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    // Cada página se lee en su propia transacción corta, justo antes de enviarla, para no tener una abierta
+    // durante todo el catálogo ni enviar filas leídas mucho antes (que podrían pisar un snapshot más nuevo
+    // publicado entre tanto por publicar)
+    public void publicarTodos() {
+        long publicados = 0;
+        Long ultimo = 0L;
+        List<ProductoSnapshotDTO> pagina;
+        do {
+            Long desde = ultimo;
+            pagina = QuarkusTransaction.requiringNew().call(() -> productoRepository.findSnapshotsDesde(desde, lote));
+            // Se espera a cada página para no desbordar el buffer del emisor
+            CompletableFuture.allOf(pagina.stream()
+                    .map(snapshot -> enviar(snapshot.id(), snapshot))
+                    .toArray(CompletableFuture[]::new)).join();
+            publicados += pagina.size();
+            if (!pagina.isEmpty()) {
+                ultimo = pagina.get(pagina.size() - 1).id();
+            }
+        } while (pagina.size() == lote);
+        System.out.println("Publicados " + publicados + " productos en " + TOPIC);
+    }
+
+    // Los IDs que ya no existen se publican como tombstone
+    public void publicar(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        Set<Long> pendientes = new LinkedHashSet<>(ids);
+        Map<Long, ProductoSnapshotDTO> snapshots = productoRepository.findSnapshots(pendientes).stream()
+                .collect(Collectors.toMap(ProductoSnapshotDTO::id, Function.identity()));
+
+        if (transacciones.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            transacciones.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int estado) {
+                    if (estado == Status.STATUS_COMMITTED) {
+                        pendientes.forEach(id -> enviar(id, snapshots.get(id)));
+                    }
+                }
+            });
+        } else {
+            pendientes.forEach(id -> enviar(id, snapshots.get(id)));
+        }
+    }
+
+    private CompletableFuture<Void> enviar(Long id, ProductoSnapshotDTO snapshot) {
+        return emitter.send(Record.of(String.valueOf(id), snapshot))
+                .toCompletableFuture()
+                .exceptionally(error -> {
+                    System.err.println("Error publicando el producto " + id + " en " + TOPIC + ": " + error.getMessage());
+                    return null;
+                });
+    }
+}
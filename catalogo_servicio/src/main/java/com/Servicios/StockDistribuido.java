@@ -0,0 +1,253 @@
+package com.Servicios;
+
+import com.Repositorios.RepositorioProducto;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Libro de stock en memoria para productos con mucha demanda (ventas flash). El stock disponible de cada
+// producto marcado se reparte en varias cubetas que se descuentan con CAS, sin pasar por el bloqueo de la
+// fila en Postgres. Las unidades reservadas se acumulan y se vuelcan a stock_reservado periódicamente.
+//
+// Supone una única réplica del catálogo: con varias, cada una tendría su propia copia del disponible y se
+// podría vender más de lo que hay. Si el proceso cae, se pierden las reservas aún no volcadas (como mucho
+// un intervalo de volcado) y el libro se reconstruye desde la base de datos al arrancar.
+@ApplicationScoped
+public class StockDistribuido {
+
+    @Inject
+    public RepositorioProducto productoRepository;
+
+    @ConfigProperty(name = "catalogo.ledger.enabled", defaultValue = "false")
+    public boolean habilitado;
+
+    @ConfigProperty(name = "catalogo.ledger.cubetas", defaultValue = "8")
+    public int numCubetas = 8;
+
+    private final Map<Long, Entrada> entradas = new ConcurrentHashMap<>();
+
+    // Entradas desactivadas cuyo volcado final falló; se reintentan en cada volcado
+    private final Map<Long, Entrada> retiradas = new ConcurrentHashMap<>();
+
+    static final class Entrada {
+        final AtomicIntegerArray cubetas;
+        // Unidades reservadas (o liberadas, si es negativo) que aún no están en stock_reservado
+        final AtomicInteger pendiente = new AtomicInteger();
+
+        Entrada(int numCubetas) {
+            this.cubetas = new AtomicIntegerArray(numCubetas);
+        }
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!habilitado) {
+            return;
+        }
+        List<Long> ids = productoRepository.findIdsStockDistribuido();
+        ids.forEach(this::cargar);
+        System.out.println("Libro de stock reconstruido para " + ids.size() + " productos");
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        volcar();
+    }
+
+    public boolean activo() {
+        return habilitado;
+    }
+
+    public boolean gestiona(Long productoId) {
+        return habilitado && entradas.containsKey(productoId);
+    }
+
+    // Todo o nada: si algún producto no tiene unidades suficientes se devuelven las ya tomadas.
+    public List<CatalogoService.FailedItem> reservar(SortedMap<Long, Integer> cantidades) {
+        List<CatalogoService.FailedItem> fallos = new ArrayList<>();
+        List<Map.Entry<Long, Integer>> tomadas = new ArrayList<>();
+
+        for (Map.Entry<Long, Integer> item : cantidades.entrySet()) {
+            Entrada entrada = entradas.get(item.getKey());
+            if (entrada == null) {
+                fallos.add(new CatalogoService.FailedItem(item.getKey(), "Producto no encontrado"));
+                continue;
+            }
+
+            // Se apunta antes de tomar para que un volcado nunca vea unidades tomadas y no contabilizadas
+            entrada.pendiente.addAndGet(item.getValue());
+            if (tomar(entrada, item.getValue())) {
+                tomadas.add(item);
+            } else {
+                entrada.pendiente.addAndGet(-item.getValue());
+                fallos.add(new CatalogoService.FailedItem(item.getKey(),
+                        "Stock insuficiente. Disponible=" + disponible(entrada) + ", pedido=" + item.getValue()));
+            }
+        }
+
+        if (!fallos.isEmpty()) {
+            tomadas.forEach(item -> devolver(item.getKey(), item.getValue()));
+        }
+        return fallos;
+    }
+
+    // Deshace una reserva hecha con reservar que aún no se ha volcado.
+    public void devolver(Long productoId, int cantidad) {
+        Entrada entrada = entradas.get(productoId);
+        if (entrada != null) {
+            repartir(entrada, cantidad);
+            entrada.pendiente.addAndGet(-cantidad);
+        }
+    }
+
+    // El evento de liberación ya ha actualizado stock_reservado; solo se repone el disponible.
+    public void stockLiberado(Long productoId, int cantidad) {
+        Entrada entrada = entradas.get(productoId);
+        if (entrada != null) {
+            repartir(entrada, cantidad);
+        }
+    }
+
+    // Vuelve a leer el disponible de la base de datos, p.ej. después de que un administrador cambie el stock.
+    public void recargar(Long productoId) {
+        Entrada entrada = entradas.get(productoId);
+        if (entrada == null) {
+            return;
+        }
+        synchronized (entrada) {
+            vaciar(entrada);
+            volcarEntrada(productoId, entrada);
+            repartir(entrada, leerDisponible(productoId));
+        }
+    }
+
+    public boolean cambiarEstado(Long productoId, boolean activar) {
+        boolean existe = productoRepository.marcarStockDistribuido(productoId, activar);
+        if (!existe || !habilitado) {
+            return existe;
+        }
+
+        if (activar) {
+            cargar(productoId);
+        } else {
+            Entrada entrada = entradas.remove(productoId);
+            if (entrada != null) {
+                synchronized (entrada) {
+                    vaciar(entrada);
+                    volcarEntrada(productoId, entrada);
+                }
+                if (entrada.pendiente.get() != 0) {
+                    retiradas.put(productoId, entrada);
+                }
+            }
+        }
+        return true;
+    }
+
+    // El producto se ha borrado: no queda fila a la que volcar.
+    public void olvidar(Long productoId) {
+        entradas.remove(productoId);
+        retiradas.remove(productoId);
+    }
+
+    @Scheduled(every = "${catalogo.ledger.volcado:1s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void volcar() {
+        entradas.forEach(this::volcarEntrada);
+        retiradas.forEach((id, entrada) -> {
+            volcarEntrada(id, entrada);
+            if (entrada.pendiente.get() == 0) {
+                retiradas.remove(id);
+            }
+        });
+    }
+
+    private void volcarEntrada(Long productoId, Entrada entrada) {
+        int delta = entrada.pendiente.getAndSet(0);
+        if (delta == 0) {
+            return;
+        }
+        try {
+            productoRepository.ajustarStockReservado(productoId, delta);
+        } catch (Exception e) {
+            entrada.pendiente.addAndGet(delta);
+            System.err.println("Error volcando el stock reservado del producto " + productoId + ": " + e.getMessage());
+        }
+    }
+
+    public void cargar(Long productoId) {
+        Entrada entrada = entradas.computeIfAbsent(productoId, id -> new Entrada(numCubetas));
+        synchronized (entrada) {
+            vaciar(entrada);
+            repartir(entrada, Math.max(leerDisponible(productoId) - entrada.pendiente.get(), 0));
+        }
+    }
+
+    private int leerDisponible(Long productoId) {
+        Integer disponible = productoRepository.stockDisponible(List.of(productoId)).get(productoId);
+        return disponible == null ? 0 : Math.max(disponible, 0);
+    }
+
+    // Camino rápido: CAS sobre una cubeta con unidades suficientes, empezando por una aleatoria para repartir
+    // la contención. Si ninguna basta por sí sola se reequilibra.
+    private boolean tomar(Entrada entrada, int cantidad) {
+        int n = entrada.cubetas.length();
+        int inicio = ThreadLocalRandom.current().nextInt(n);
+        for (int i = 0; i < n; i++) {
+            int cubeta = (inicio + i) % n;
+            int actual = entrada.cubetas.get(cubeta);
+            while (actual >= cantidad) {
+                if (entrada.cubetas.compareAndSet(cubeta, actual, actual - cantidad)) {
+                    return true;
+                }
+                actual = entrada.cubetas.get(cubeta);
+            }
+        }
+        return reequilibrar(entrada, cantidad);
+    }
+
+    // Junta todas las cubetas, toma la cantidad si llega y reparte el resto a partes iguales.
+    private boolean reequilibrar(Entrada entrada, int cantidad) {
+        synchronized (entrada) {
+            int total = vaciar(entrada);
+            boolean reservado = total >= cantidad;
+            repartir(entrada, reservado ? total - cantidad : total);
+            return reservado;
+        }
+    }
+
+    private int vaciar(Entrada entrada) {
+        int total = 0;
+        for (int i = 0; i < entrada.cubetas.length(); i++) {
+            total += entrada.cubetas.getAndSet(i, 0);
+        }
+        return total;
+    }
+
+    private void repartir(Entrada entrada, int unidades) {
+        int n = entrada.cubetas.length();
+        int base = unidades / n;
+        int resto = unidades % n;
+        for (int i = 0; i < n; i++) {
+            entrada.cubetas.addAndGet(i, base + (i < resto ? 1 : 0));
+        }
+    }
+
+    private int disponible(Entrada entrada) {
+        int total = 0;
+        for (int i = 0; i < entrada.cubetas.length(); i++) {
+            total += entrada.cubetas.get(i);
+        }
+        return total;
+    }
+}
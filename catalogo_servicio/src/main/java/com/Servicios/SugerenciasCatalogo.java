@@ -0,0 +1,167 @@
+package com.Servicios;
+
+import com.DTO.SugerenciaDTO;
+import com.Repositorios.RepositorioProducto;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Índice de prefijos sobre el nombre normalizado (minúsculas, sin tildes) para las sugerencias mientras se
+// escribe. Las claves "nombre\0id" se guardan ordenadas, así que los nombres que empiezan por un prefijo
+// forman un rango contiguo. Solo se indexan los maxEntradas productos mejor valorados: al llenarse se
+// descarta el de menor puntuación, lo que acota la memoria aunque el catálogo tenga millones de productos.
+@ApplicationScoped
+public class SugerenciasCatalogo {
+
+    private static final Comparator<SugerenciaDTO> POR_PUNTUACION =
+            Comparator.comparingDouble(SugerenciaDTO::puntuacion).thenComparing(SugerenciaDTO::id);
+
+    @Inject
+    public RepositorioProducto productoRepository;
+
+    @ConfigProperty(name = "catalogo.sugerencias.max-entradas", defaultValue = "200000")
+    public int maxEntradas = 200000;
+
+    // Coincidencias que se recorren por nombre; con más se buscan por puntuación en su lugar
+    @ConfigProperty(name = "catalogo.sugerencias.max-candidatos", defaultValue = "2000")
+    public int maxCandidatos = 2000;
+
+    @ConfigProperty(name = "catalogo.sugerencias.longitud-minima", defaultValue = "2")
+    public int longitudMinima = 2;
+
+    private volatile Indice indice = new Indice();
+
+    private static final class Indice {
+        final ConcurrentSkipListMap<String, SugerenciaDTO> porNombre = new ConcurrentSkipListMap<>();
+        final Map<Long, String> claves = new ConcurrentHashMap<>();
+        final ConcurrentSkipListSet<SugerenciaDTO> porPuntuacion = new ConcurrentSkipListSet<>(POR_PUNTUACION);
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        try {
+            reconstruir();
+        } catch (Exception e) {
+            System.err.println("No se ha podido construir el índice de sugerencias: " + e.getMessage());
+        }
+    }
+
+    // También recoge los cambios de puntuación, que llegan por las valoraciones y no pasan por aquí
+    @Scheduled(every = "${catalogo.sugerencias.reconstruccion:10m}", delayed = "${catalogo.sugerencias.reconstruccion:10m}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void reconstruir() {
+        Indice nuevo = new Indice();
+        for (Object[] fila : productoRepository.findMejorValorados(maxEntradas)) {
+            agregar(nuevo, new SugerenciaDTO((Long) fila[0], (String) fila[1], (Double) fila[2]));
+        }
+        synchronized (this) {
+            indice = nuevo;
+        }
+    }
+
+    public synchronized void indexar(Long id, String nombre, double puntuacion) {
+        if (id == null || nombre == null) {
+            return;
+        }
+        Indice actual = indice;
+        quitar(actual, id);
+        agregar(actual, new SugerenciaDTO(id, nombre, puntuacion));
+        while (actual.porPuntuacion.size() > maxEntradas) {
+            quitar(actual, actual.porPuntuacion.first().id());
+        }
+    }
+
+    // Mantiene la puntuación que ya tuviera el producto en el índice
+    public synchronized void renombrar(Long id, String nombre) {
+        Indice actual = indice;
+        String clave = actual.claves.get(id);
+        SugerenciaDTO anterior = clave == null ? null : actual.porNombre.get(clave);
+        if (anterior != null && nombre != null) {
+            quitar(actual, id);
+            agregar(actual, new SugerenciaDTO(id, nombre, anterior.puntuacion()));
+        }
+    }
+
+    public synchronized void olvidar(Long id) {
+        quitar(indice, id);
+    }
+
+    public List<SugerenciaDTO> sugerir(String texto, int limite) {
+        String prefijo = texto == null ? "" : normalizar(texto);
+        if (prefijo.length() < longitudMinima || limite <= 0) {
+            return List.of();
+        }
+
+        // Montículo con los limite mejor puntuados entre las coincidencias. Si el rango por nombre es
+        // pequeño se recorre entero y el resultado es exacto
+        Indice actual = indice;
+        PriorityQueue<SugerenciaDTO> mejores = new PriorityQueue<>(limite + 1, POR_PUNTUACION);
+        int examinadas = 0;
+        for (SugerenciaDTO candidata : actual.porNombre.subMap(prefijo, prefijo + Character.MAX_VALUE).values()) {
+            if (++examinadas > maxCandidatos) {
+                return mejoresPorPuntuacion(actual, prefijo, limite);
+            }
+            mejores.add(candidata);
+            if (mejores.size() > limite) {
+                mejores.poll();
+            }
+        }
+
+        List<SugerenciaDTO> resultado = new ArrayList<>(mejores);
+        resultado.sort(POR_PUNTUACION.reversed());
+        return resultado;
+    }
+
+    // Prefijos poco selectivos: se recorre el índice de mayor a menor puntuación y las primeras limite
+    // coincidencias ya son las mejores, sin depender del orden alfabético
+    private static List<SugerenciaDTO> mejoresPorPuntuacion(Indice indice, String prefijo, int limite) {
+        List<SugerenciaDTO> resultado = new ArrayList<>(limite);
+        for (SugerenciaDTO candidata : indice.porPuntuacion.descendingSet()) {
+            String clave = indice.claves.get(candidata.id());
+            if (clave != null && clave.startsWith(prefijo)) {
+                resultado.add(candidata);
+                if (resultado.size() >= limite) {
+                    break;
+                }
+            }
+        }
+        return resultado;
+    }
+
+    static String normalizar(String texto) {
+        return Normalizer.normalize(texto, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase()
+                .trim()
+                .replaceAll("\\s+", " ");
+    }
+
+    private static void agregar(Indice indice, SugerenciaDTO sugerencia) {
+        String clave = normalizar(sugerencia.nombre()) + '\0' + sugerencia.id();
+        indice.porNombre.put(clave, sugerencia);
+        indice.claves.put(sugerencia.id(), clave);
+        indice.porPuntuacion.add(sugerencia);
+    }
+
+    private static void quitar(Indice indice, Long id) {
+        String clave = indice.claves.remove(id);
+        if (clave != null) {
+            SugerenciaDTO sugerencia = indice.porNombre.remove(clave);
+            if (sugerencia != null) {
+                indice.porPuntuacion.remove(sugerencia);
+            }
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package com.catalogo.Componente;
 
+import com.DTO.DisponibilidadDTO;
+import com.DTO.ProductoDTO;
 import com.Entidades.Producto;
 import com.Entidades.Valoracion;
 import com.Recursos.CatalogoResource;
 import com.Repositorios.RepositorioProducto;
+import com.Repositorios.ReservaStockRepository;
 import com.Repositorios.ValoracionRepository;
+import com.Servicios.CacheProductos;
 import com.Servicios.CatalogoService;
+import com.Servicios.CombinadorReservas;
+import com.Servicios.FacetasCatalogo;
+import com.Servicios.SnapshotsProductos;
+import com.Servicios.StockDistribuido;
+import com.Servicios.SugerenciasCatalogo;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.security.TestSecurity;
@@ -19,6 +28,8 @@ import org.mockito.Mockito;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.*;
@@ -38,6 +49,8 @@ public class CatalogoResourceTest {
 
     ValoracionRepository valoracionRepository;
 
+    ReservaStockRepository reservaStockRepository;
+
     // JSON válido para crear un producto
     String productoValidoJson = """
         {
@@ -69,16 +82,49 @@ public class CatalogoResourceTest {
         productoRepositoryMock = mock(RepositorioProducto.class);
         productEventEmitter = mock(Emitter.class);
         valoracionRepository = mock(ValoracionRepository.class);
+        reservaStockRepository = mock(ReservaStockRepository.class);
         catalogoService = new CatalogoService();
         catalogoService.productoRepository = productoRepositoryMock;
         catalogoService.objectMapper = new ObjectMapper();
         catalogoResource.catalogoService = catalogoService;
         catalogoService.productEventEmitter = productEventEmitter;
         catalogoService.valoracionRepository = valoracionRepository;
+        catalogoService.stockDistribuido = new StockDistribuido();
+        catalogoService.combinadorReservas = new CombinadorReservas();
+        catalogoService.facetasCatalogo = new FacetasCatalogo();
+        catalogoService.sugerenciasCatalogo = new SugerenciasCatalogo();
+        // Sin Redis en las pruebas: la caché delega siempre en la carga desde el repositorio
+        catalogoService.cacheProductos = mock(CacheProductos.class);
+        Mockito.when(catalogoService.cacheProductos.obtener(Mockito.anyLong(), Mockito.any()))
+                .thenAnswer(inv -> inv.<Function<Long, ProductoDTO>>getArgument(1).apply(inv.getArgument(0)));
+        catalogoService.reservaStockRepository = reservaStockRepository;
+        catalogoService.snapshotsProductos = mock(SnapshotsProductos.class);
     }
 
 
 
+    @Test
+    public void filtrarProductosPorDetalles() {
+        List<ProductoDTO> productosMock = List.of(
+                new ProductoDTO(1L, "Smartphone", "Teléfono móvil",
+                        BigDecimal.valueOf(699.99), 10, "Teléfono", "url", null)
+        );
+        Mockito.when(productoRepositoryMock.buscarProductos(1, 10, null, null, null, null,
+                        Map.of("color", "Negro", "almacenamiento", "128GB")))
+                .thenReturn(productosMock);
+
+        given()
+                .contentType(ContentType.JSON)
+                .queryParam("detalles.color", "Negro")
+                .queryParam("detalles.almacenamiento", "128GB")
+                .when()
+                .get("/catalogo")
+                .then()
+                .statusCode(200)
+                .body("size()", is(1))
+                .body("[0].nombre", equalTo("Smartphone"));
+    }
+
     @Test
     public void validarTamanoMaximoPagina() {
         given()
@@ -92,18 +138,31 @@ public class CatalogoResourceTest {
                 .body(containsString("tamaño máximo permitido"));
     }
 
+    @Test
+    public void validarTamanoMinimoPaginaConCursor() {
+        given()
+                .contentType(ContentType.JSON)
+                .queryParam("size", 0)
+                .queryParam("orden", "precio")
+                .when()
+                .get("/catalogo")
+                .then()
+                .statusCode(Response.Status.BAD_REQUEST.getStatusCode())
+                .body(containsString("tamaño mínimo"));
+    }
+
     @Test
     public void testObtenerProductosConFiltros() {
         // Datos simulados que devuelve el repositorio mockeado
-        List<Producto> productosMock = List.of(
-                new Producto("Zapato", "Zapato deportivo",
+        List<ProductoDTO> productosMock = List.of(
+                new ProductoDTO(1L, "Zapato", "Zapato deportivo",
                         BigDecimal.valueOf(59.99), 10, "Ropa","url", null),
-                new Producto("Camisa", "Camisa formal",
+                new ProductoDTO(2L, "Camisa", "Camisa formal",
                         BigDecimal.valueOf(39.99), 5, "Ropa","url", null)
         );
 
         // Configuramos el mock para devolver la lista sin filtrar
-        Mockito.when(productoRepositoryMock.buscarProductos(1,10,"zapato","Ropa",30.0,70.0))
+        Mockito.when(productoRepositoryMock.buscarProductos(1,10,"zapato","Ropa",30.0,70.0,Map.of()))
                 .thenReturn(productosMock);
 
         given()
@@ -210,11 +269,10 @@ public class CatalogoResourceTest {
     @Test
     public void obtenerProductoPorId() {
         // Mock producto existente
-        Producto producto = new Producto("Zapato", "Zapato deportivo",
+        ProductoDTO producto = new ProductoDTO(1L, "Zapato", "Zapato deportivo",
                 BigDecimal.valueOf(59.99), 10, "Ropa","url", null);
-        producto.setId(1L);
 
-        Mockito.when(productoRepositoryMock.findById(1L)).thenReturn(producto);
+        Mockito.when(productoRepositoryMock.findDTOById(1L)).thenReturn(producto);
 
         given()
                 .when()
@@ -224,6 +282,36 @@ public class CatalogoResourceTest {
                 .body("nombre", equalTo("Zapato"));
     }
 
+    @Test
+    public void obtenerDisponibilidad() {
+        Mockito.when(productoRepositoryMock.findDisponibilidad(1L)).thenReturn(new DisponibilidadDTO(1L, 10, 7));
+
+        given()
+                .when()
+                .get("/catalogo/1/disponibilidad")
+                .then()
+                .statusCode(Response.Status.OK.getStatusCode())
+                .body("stock", equalTo(10))
+                .body("disponible", equalTo(7));
+    }
+
+    @Test
+    public void obtenerDisponibilidadesPorLote() {
+        Mockito.when(productoRepositoryMock.findDisponibilidades(List.of(1L, 2L)))
+                .thenReturn(List.of(new DisponibilidadDTO(1L, 10, 7)));
+
+        given()
+                .contentType(ContentType.JSON)
+                .body("{\"ids\": [1, 2]}")
+                .when()
+                .post("/catalogo/disponibilidad/lote")
+                .then()
+                .statusCode(Response.Status.OK.getStatusCode())
+                .body("size()", is(1))
+                .body("[0].productoId", equalTo(1))
+                .body("[0].disponible", equalTo(7));
+    }
+
     private static final Long PRODUCTO_ID = 1L;
 
     @Test
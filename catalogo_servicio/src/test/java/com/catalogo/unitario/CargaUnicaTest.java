@@ -0,0 +1,97 @@
+package com.catalogo.unitario;
+
+import com.Servicios.CargaUnica;
+import org.eclipse.microprofile.metrics.Counter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CargaUnicaTest {
+
+    Counter agrupadas;
+
+    CargaUnica<Long, String> cargas;
+
+    @BeforeEach
+    void setup() {
+        agrupadas = Mockito.mock(Counter.class);
+        cargas = new CargaUnica<>(agrupadas);
+    }
+
+    @Test
+    void cargar_peticionesConcurrentesCompartenUnaCarga() throws Exception {
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        AtomicInteger llamadas = new AtomicInteger();
+
+        CompletableFuture<String> primera = CompletableFuture.supplyAsync(() -> cargas.cargar(1L, id -> {
+            llamadas.incrementAndGet();
+            empezada.countDown();
+            await(liberar);
+            return "producto " + id;
+        }));
+        assertTrue(empezada.await(5, TimeUnit.SECONDS));
+        assertTrue(cargas.cargando(1L));
+
+        CompletableFuture<String> segunda = CompletableFuture.supplyAsync(() -> cargas.cargar(1L, id -> {
+            llamadas.incrementAndGet();
+            return "otra carga";
+        }));
+        Mockito.verify(agrupadas, Mockito.timeout(5000)).inc();
+        liberar.countDown();
+
+        assertEquals("producto 1", primera.get(5, TimeUnit.SECONDS));
+        assertEquals("producto 1", segunda.get(5, TimeUnit.SECONDS));
+        assertEquals(1, llamadas.get());
+        assertFalse(cargas.cargando(1L));
+    }
+
+    @Test
+    void cargar_elErrorLlegaATodosLosQueEsperaban() throws Exception {
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+
+        CompletableFuture<String> primera = CompletableFuture.supplyAsync(() -> cargas.cargar(1L, id -> {
+            empezada.countDown();
+            await(liberar);
+            throw new IllegalStateException("sin base de datos");
+        }));
+        assertTrue(empezada.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> segunda = CompletableFuture.supplyAsync(() -> cargas.cargar(1L, id -> "otra carga"));
+        Mockito.verify(agrupadas, Mockito.timeout(5000)).inc();
+        liberar.countDown();
+
+        Exception errorPrimera = assertThrows(Exception.class, () -> primera.get(5, TimeUnit.SECONDS));
+        Exception errorSegunda = assertThrows(Exception.class, () -> segunda.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, errorPrimera.getCause());
+        assertInstanceOf(IllegalStateException.class, errorSegunda.getCause());
+    }
+
+    @Test
+    void cargar_laClaveSeLiberaAlTerminarAunqueFalle() {
+        assertThrows(IllegalStateException.class, () -> cargas.cargar(1L, id -> {
+            throw new IllegalStateException("sin base de datos");
+        }));
+        assertFalse(cargas.cargando(1L));
+
+        // La siguiente petición vuelve a cargar en lugar de recibir el error anterior
+        assertEquals("producto 1", cargas.cargar(1L, id -> "producto " + id));
+        assertFalse(cargas.cargando(1L));
+        Mockito.verify(agrupadas, Mockito.never()).inc();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,14 +1,25 @@
 package com.catalogo.unitario;
 
+import com.DTO.FacetasDTO;
+import com.DTO.PaginaCursorDTO;
 import com.DTO.ProductoDTO;
+import com.DTO.SugerenciaDTO;
 import com.DTO.ValoracionDTO;
 import com.Entidades.Producto;
-import com.Entidades.Valoracion;
+import com.Entidades.ReservaStock;
 import com.DTO.ProductEventDTO;
 import com.Recursos.CatalogoResource;
+import com.Repositorios.EventoStockProcesadoRepository;
 import com.Repositorios.RepositorioProducto;
+import com.Repositorios.ReservaStockRepository;
 import com.Repositorios.ValoracionRepository;
+import com.Servicios.CacheProductos;
 import com.Servicios.CatalogoService;
+import com.Servicios.CombinadorReservas;
+import com.Servicios.FacetasCatalogo;
+import com.Servicios.SnapshotsProductos;
+import com.Servicios.StockDistribuido;
+import com.Servicios.SugerenciasCatalogo;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -20,9 +31,19 @@ import org.junit.jupiter.api.Test;
 import org.mockito.*;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -42,6 +63,12 @@ class CatalogoServiceTest {
     @Mock
     ValoracionRepository valoracionRepository;
 
+    @Mock
+    ReservaStockRepository reservaStockRepository;
+
+    @Mock
+    EventoStockProcesadoRepository eventoProcesadoRepository;
+
     ObjectMapper objectMapper = new ObjectMapper();
 
     @BeforeEach
@@ -53,6 +80,16 @@ class CatalogoServiceTest {
         catalogoService.productoRepository = productoRepository;
         catalogoService.valoracionRepository = valoracionRepository;
         catalogoService.objectMapper = new ObjectMapper();
+        catalogoService.stockDistribuido = new StockDistribuido();
+        catalogoService.combinadorReservas = new CombinadorReservas();
+        catalogoService.facetasCatalogo = new FacetasCatalogo();
+        catalogoService.sugerenciasCatalogo = new SugerenciasCatalogo();
+        catalogoService.cacheProductos = Mockito.mock(CacheProductos.class);
+        catalogoService.snapshotsProductos = Mockito.mock(SnapshotsProductos.class);
+        catalogoService.reservaStockRepository = reservaStockRepository;
+        catalogoService.eventoProcesadoRepository = eventoProcesadoRepository;
+        Mockito.when(eventoProcesadoRepository.registrarNuevas(Mockito.anyCollection()))
+                .thenAnswer(inv -> new HashSet<>(inv.<Collection<String>>getArgument(0)));
     }
 
     private List<Producto> crearProductosDeEjemplo() {
@@ -64,9 +101,17 @@ class CatalogoServiceTest {
         );
     }
 
+    // Lo que devuelven las consultas de lectura del repositorio, que ya proyectan sobre ProductoDTO
+    private List<ProductoDTO> crearProductosDTODeEjemplo() {
+        return crearProductosDeEjemplo().stream()
+                .map(p -> new ProductoDTO(p.getId(), p.getNombre(), p.getDescripcion(), p.getPrecio(),
+                        p.getStock(), p.getCategoria(), p.getImagenURL(), p.getDetalles()))
+                .toList();
+    }
+
     @Test
     void obtenerProductosSinFiltros() {
-        Mockito.when(productoRepository.buscarProductos(1,10,null,null,null,null)).thenReturn(crearProductosDeEjemplo());
+        Mockito.when(productoRepository.buscarProductos(1,10,null,null,null,null,Map.of())).thenReturn(crearProductosDTODeEjemplo());
 
         List<ProductoDTO> productos = catalogoService.obtenerProductos(1, 10, null, null, null, null);
 
@@ -75,7 +120,7 @@ class CatalogoServiceTest {
 
     @Test
     void obtenerProductosConFiltros() {
-        Mockito.when(productoRepository.buscarProductos(1,10,"zapato", "ropa", 50.0, 100.0)).thenReturn(crearProductosDeEjemplo());
+        Mockito.when(productoRepository.buscarProductos(1,10,"zapato", "ropa", 50.0, 100.0, Map.of())).thenReturn(crearProductosDTODeEjemplo());
 
         List<ProductoDTO> filtrados = catalogoService.obtenerProductos(1, 10, "zapato", "ropa", 50.0, 100.0);
 
@@ -85,7 +130,7 @@ class CatalogoServiceTest {
 
     @Test
     void obtenerProductosConPaginacionPagina1() {
-        Mockito.when(productoRepository.buscarProductos(1,4,null,null,null,null)).thenReturn(crearProductosDeEjemplo());
+        Mockito.when(productoRepository.buscarProductos(1,4,null,null,null,null,Map.of())).thenReturn(crearProductosDTODeEjemplo());
 
         List<ProductoDTO> pagina1 = catalogoService.obtenerProductos(1, 4, null, null, null, null);
 
@@ -93,6 +138,105 @@ class CatalogoServiceTest {
         assertEquals("Zapato", pagina1.get(0).getNombre());
     }
 
+    @Test
+    void obtenerProductosPorCursor_encadenaLasPaginas() {
+        List<ProductoDTO> ejemplo = crearProductosDTODeEjemplo();
+        for (int i = 0; i < ejemplo.size(); i++) {
+            ejemplo.get(i).setId(i + 1L);
+        }
+        Mockito.when(productoRepository.buscarProductosDesde(3, null, null, null, null, Map.of(),
+                        RepositorioProducto.OrdenListado.PRECIO, null, null))
+                .thenReturn(ejemplo.subList(0, 3));
+
+        PaginaCursorDTO<ProductoDTO> primera = catalogoService.obtenerProductosPorCursor(2, null, null, null, null, Map.of(), "precio", "");
+
+        assertEquals(2, primera.getDatos().size());
+        assertNotNull(primera.getSiguiente());
+
+        catalogoService.obtenerProductosPorCursor(2, null, null, null, null, Map.of(), "precio", primera.getSiguiente());
+
+        // La segunda página empieza después del último producto entregado (Camisa, 39.99, id 2)
+        Mockito.verify(productoRepository).buscarProductosDesde(3, null, null, null, null, Map.of(),
+                RepositorioProducto.OrdenListado.PRECIO, new BigDecimal("39.99"), 2L);
+    }
+
+    @Test
+    void obtenerProductosPorCursor_rechazaUnCursorDeOtroOrden() {
+        ProductoDTO producto = crearProductosDTODeEjemplo().get(0);
+        producto.setId(1L);
+        Mockito.when(productoRepository.buscarProductosDesde(Mockito.anyInt(), Mockito.any(), Mockito.any(),
+                        Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(List.of(producto, producto));
+
+        String cursor = catalogoService.obtenerProductosPorCursor(1, null, null, null, null, Map.of(), "nombre", null).getSiguiente();
+
+        WebApplicationException ex = assertThrows(WebApplicationException.class,
+                () -> catalogoService.obtenerProductosPorCursor(1, null, null, null, null, Map.of(), "precio", cursor));
+        assertEquals(400, ex.getResponse().getStatus());
+    }
+
+    @Test
+    void facetas_seActualizanConLosCambiosDeProductos() {
+        FacetasCatalogo facetas = catalogoService.facetasCatalogo;
+        facetas.productoRepository = productoRepository;
+        facetas.limitesPrecio = List.of(new BigDecimal("10"), new BigDecimal("100"));
+        Mockito.when(productoRepository.contarPorCategoria()).thenReturn(Map.of("Ropa", 2L));
+        Mockito.when(productoRepository.contarPorRangoPrecio(facetas.limitesPrecio)).thenReturn(new long[]{0, 2, 0});
+        facetas.reconstruir();
+
+        Producto existente = crearProductosDeEjemplo().get(0);
+        Mockito.when(productoRepository.findById(1L)).thenReturn(existente);
+        Mockito.when(productoRepository.updateProduct(Mockito.eq(1L), Mockito.any(), Mockito.any(), Mockito.any(),
+                Mockito.any(), Mockito.any())).thenReturn(true);
+        ProductoDTO cambio = new ProductoDTO(1L, "Zapato", "Zapato deportivo", new BigDecimal("150.00"), 10,
+                "Ropa", "url", null);
+
+        catalogoService.agregarProducto(new ProductoDTO(null, "Laptop", "Portátil", new BigDecimal("999.99"), 3,
+                "Electrónica", "url", null));
+        catalogoService.actualizarProducto(1L, cambio);
+
+        FacetasDTO resultado = catalogoService.obtenerFacetas();
+        assertEquals(Map.of("Ropa", 2L, "Electrónica", 1L), resultado.categorias());
+        assertEquals(List.of(0L, 1L, 2L), resultado.precios().stream().map(FacetasDTO.RangoPrecio::total).toList());
+        assertNull(resultado.precios().get(2).hasta());
+    }
+
+    @Test
+    void sugerencias_devuelvenLosMejorValoradosQueEmpiezanPorElPrefijo() {
+        SugerenciasCatalogo sugerencias = catalogoService.sugerenciasCatalogo;
+        sugerencias.maxEntradas = 4;
+        sugerencias.indexar(1L, "Cámara réflex", 3.5);
+        sugerencias.indexar(2L, "Camiseta básica", 4.8);
+        sugerencias.indexar(3L, "Camisa formal", 4.1);
+        sugerencias.indexar(4L, "Zapato deportivo", 2.0);
+        // Con el índice lleno se descarta el peor valorado (Zapato)
+        sugerencias.indexar(5L, "Cama nido", 3.9);
+
+        List<SugerenciaDTO> resultado = catalogoService.obtenerSugerencias("CAMA", 2);
+
+        assertEquals(List.of(5L, 1L), resultado.stream().map(SugerenciaDTO::id).toList());
+        assertEquals(List.of(2L, 3L), catalogoService.obtenerSugerencias("cami", 5).stream().map(SugerenciaDTO::id).toList());
+        assertTrue(catalogoService.obtenerSugerencias("zap", 5).isEmpty());
+        assertTrue(catalogoService.obtenerSugerencias("c", 5).isEmpty());
+    }
+
+    @Test
+    void sugerencias_prefijoConMasCoincidenciasQueCandidatos() {
+        SugerenciasCatalogo sugerencias = catalogoService.sugerenciasCatalogo;
+        sugerencias.maxCandidatos = 3;
+        // Por orden alfabético los mejor valorados quedan al final del rango
+        sugerencias.indexar(1L, "Camiseta a", 1.0);
+        sugerencias.indexar(2L, "Camiseta b", 2.0);
+        sugerencias.indexar(3L, "Camiseta c", 3.0);
+        sugerencias.indexar(4L, "Camiseta d", 4.0);
+        sugerencias.indexar(5L, "Camiseta e", 5.0);
+        sugerencias.indexar(6L, "Zapato", 4.9);
+
+        List<SugerenciaDTO> resultado = catalogoService.obtenerSugerencias("cami", 2);
+
+        assertEquals(List.of(5L, 4L), resultado.stream().map(SugerenciaDTO::id).toList());
+    }
+
     @Test
     void obtenerProductosCuandoNoHayNinguno() {
         Mockito.when(productoRepository.listAll()).thenReturn(Collections.emptyList());
@@ -102,6 +246,19 @@ class CatalogoServiceTest {
         assertTrue(productos.isEmpty());
     }
 
+    @Test
+    void obtenerProductosPorIdsUsaUnaSolaConsulta() {
+        Mockito.when(productoRepository.findDTOsByIds(Mockito.anyCollection())).thenReturn(crearProductosDTODeEjemplo());
+
+        List<ProductoDTO> resultado = catalogoService.obtenerProductosPorIds(List.of(1L, 2L, 3L, 4L, 1L));
+
+        assertEquals(4, resultado.size());
+        // Los IDs repetidos se piden una sola vez
+        Mockito.verify(productoRepository, Mockito.times(1)).findDTOsByIds(Set.of(1L, 2L, 3L, 4L));
+        Mockito.verify(productoRepository, Mockito.never()).findById(Mockito.anyLong());
+        Mockito.verify(productoRepository, Mockito.never()).findDTOById(Mockito.anyLong());
+    }
+
     @Test
     void agregarProductoCorrectamente() {
         // Arrange: DTO de entrada
@@ -201,6 +358,8 @@ class CatalogoServiceTest {
         boolean resultado = catalogoService.eliminarProducto(productoId);
 
         assertTrue(resultado);
+        // El borrado llega a la réplica del carrito como tombstone en productos-snapshot
+        Mockito.verify(catalogoService.snapshotsProductos).publicar(List.of(productoId));
     }
 
     @Test
@@ -265,26 +424,241 @@ class CatalogoServiceTest {
         assertFalse(resultado.reserved());
     }
 
+    @Test
+    void reservarStockAtomico_agrupaCantidadesYNoCargaEntidades() {
+        catalogoService.reservasAtomicas = true;
+        Mockito.when(productoRepository.reservarStockAtomico(Mockito.any())).thenReturn(Set.of());
+
+        List<CatalogoResource.ReservaItemRequest> request = List.of(
+                new CatalogoResource.ReservaItemRequest(2L, 1),
+                new CatalogoResource.ReservaItemRequest(1L, 3),
+                new CatalogoResource.ReservaItemRequest(2L, 4));
+        CatalogoService.ReservaBatchResult resultado = catalogoService.reservarStockMultiple(request);
+
+        assertTrue(resultado.reserved());
+        ArgumentCaptor<SortedMap<Long, Integer>> captor = ArgumentCaptor.forClass(SortedMap.class);
+        Mockito.verify(productoRepository).reservarStockAtomico(captor.capture());
+        assertEquals(List.of(1L, 2L), List.copyOf(captor.getValue().keySet()));
+        assertEquals(5, captor.getValue().get(2L));
+        Mockito.verify(productoRepository, Mockito.never()).findById(Mockito.anyLong());
+    }
+
+    @Test
+    void reservarStockAtomico_informaDeLosProductosFallidos() {
+        catalogoService.reservasAtomicas = true;
+        Mockito.when(productoRepository.reservarStockAtomico(Mockito.any())).thenReturn(Set.of(2L, 999L));
+        Mockito.when(productoRepository.stockDisponible(Mockito.anyCollection())).thenReturn(Map.of(2L, 1));
+
+        List<CatalogoResource.ReservaItemRequest> request = List.of(
+                new CatalogoResource.ReservaItemRequest(2L, 3),
+                new CatalogoResource.ReservaItemRequest(999L, 1));
+        CatalogoService.ReservaBatchResult resultado = catalogoService.reservarStockMultiple(request);
+
+        assertFalse(resultado.reserved());
+        assertEquals(2, resultado.failures().size());
+        assertTrue(resultado.failures().stream()
+                .anyMatch(f -> f.productoId().equals(999L) && f.reason().equals("Producto no encontrado")));
+        assertTrue(resultado.failures().stream()
+                .anyMatch(f -> f.productoId().equals(2L) && f.reason().contains("Disponible=1")));
+    }
+
+    @Test
+    void reservarStockDistribuido_noVendeMasDeLoDisponible() throws Exception {
+        StockDistribuido stockDistribuido = new StockDistribuido();
+        stockDistribuido.habilitado = true;
+        stockDistribuido.numCubetas = 4;
+        stockDistribuido.productoRepository = productoRepository;
+        catalogoService.stockDistribuido = stockDistribuido;
+        Mockito.when(productoRepository.stockDisponible(List.of(1L))).thenReturn(Map.of(1L, 500));
+        stockDistribuido.cargar(1L);
+
+        AtomicInteger reservadas = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 800; i++) {
+            executor.submit(() -> {
+                if (catalogoService.reservarStockMultiple(
+                        List.of(new CatalogoResource.ReservaItemRequest(1L, 1))).reserved()) {
+                    reservadas.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(500, reservadas.get());
+        Mockito.verify(productoRepository, Mockito.never()).reservarStockAtomico(Mockito.any());
+        Mockito.verify(productoRepository, Mockito.never()).findById(Mockito.anyLong());
+
+        stockDistribuido.volcar();
+        Mockito.verify(productoRepository).ajustarStockReservado(1L, 500);
+    }
+
+    @Test
+    void reservarStockDistribuido_devuelveLasUnidadesSiFallaElResto() {
+        StockDistribuido stockDistribuido = new StockDistribuido();
+        stockDistribuido.habilitado = true;
+        stockDistribuido.productoRepository = productoRepository;
+        catalogoService.stockDistribuido = stockDistribuido;
+        catalogoService.reservasAtomicas = true;
+        Mockito.when(productoRepository.stockDisponible(List.of(1L))).thenReturn(Map.of(1L, 10));
+        Mockito.when(productoRepository.reservarStockAtomico(Mockito.any())).thenReturn(Set.of(2L));
+        Mockito.when(productoRepository.stockDisponible(Set.of(2L))).thenReturn(Map.of(2L, 0));
+        stockDistribuido.cargar(1L);
+
+        CatalogoService.ReservaBatchResult resultado = catalogoService.reservarStockMultiple(List.of(
+                new CatalogoResource.ReservaItemRequest(1L, 10),
+                new CatalogoResource.ReservaItemRequest(2L, 1)));
+
+        assertFalse(resultado.reserved());
+        stockDistribuido.volcar();
+        Mockito.verify(productoRepository, Mockito.never()).ajustarStockReservado(Mockito.anyLong(), Mockito.anyInt());
+
+        // Las 10 unidades vuelven a estar disponibles
+        Mockito.when(productoRepository.reservarStockAtomico(Mockito.any())).thenReturn(Set.of());
+        assertTrue(catalogoService.reservarStockMultiple(List.of(
+                new CatalogoResource.ReservaItemRequest(1L, 10),
+                new CatalogoResource.ReservaItemRequest(2L, 1))).reserved());
+    }
+
+    @Test
+    void combinadorReservas_aceptaORechazaCadaPeticionPorSeparado() {
+        CombinadorReservas combinador = new CombinadorReservas();
+        combinador.productoRepository = productoRepository;
+        combinador.reservaStockRepository = reservaStockRepository;
+        Mockito.when(productoRepository.bloquearDisponible(Mockito.anyCollection()))
+                .thenReturn(new HashMap<>(Map.of(1L, 5, 2L, 10)));
+
+        List<CombinadorReservas.Peticion> lote = List.of(
+                new CombinadorReservas.Peticion(List.of(new CatalogoResource.ReservaItemRequest(1L, 3)), 10L),
+                new CombinadorReservas.Peticion(List.of(
+                        new CatalogoResource.ReservaItemRequest(2L, 4),
+                        new CatalogoResource.ReservaItemRequest(1L, 3)), 11L),
+                new CombinadorReservas.Peticion(List.of(new CatalogoResource.ReservaItemRequest(1L, 2)), 12L),
+                new CombinadorReservas.Peticion(List.of(new CatalogoResource.ReservaItemRequest(999L, 1)), 13L));
+
+        List<CatalogoService.ReservaBatchResult> resultados = combinador.procesarLote(lote);
+
+        assertTrue(resultados.get(0).reserved());
+        assertFalse(resultados.get(1).reserved());
+        assertEquals(1L, resultados.get(1).failures().get(0).productoId());
+        assertTrue(resultados.get(2).reserved());
+        assertEquals("Producto no encontrado", resultados.get(3).failures().get(0).reason());
+
+        // Un único UPDATE por lote con la suma de lo aceptado; la petición rechazada no toca el producto 2
+        Mockito.verify(productoRepository).bloquearDisponible(Mockito.anyCollection());
+        Mockito.verify(productoRepository).sumarStockReservado(new TreeMap<>(Map.of(1L, 5)));
+    }
+
+    @Test
+    void combinadorReservas_deshaceLaReservaQueNadieEspera() {
+        CombinadorReservas combinador = new CombinadorReservas();
+        combinador.productoRepository = productoRepository;
+        combinador.reservaStockRepository = reservaStockRepository;
+        Mockito.when(productoRepository.bloquearDisponible(Mockito.anyCollection()))
+                .thenReturn(new HashMap<>(Map.of(1L, 5, 2L, 10)));
+        Mockito.when(reservaStockRepository.liberar(Mockito.anyCollection())).thenReturn(new HashMap<>(Map.of(1L, 3)));
+
+        CombinadorReservas.Peticion abandonada =
+                new CombinadorReservas.Peticion(List.of(new CatalogoResource.ReservaItemRequest(1L, 3)), 10L);
+        CombinadorReservas.Peticion esperada =
+                new CombinadorReservas.Peticion(List.of(new CatalogoResource.ReservaItemRequest(2L, 1)), 11L);
+        List<CombinadorReservas.Peticion> lote = List.of(abandonada, esperada);
+
+        List<CatalogoService.ReservaBatchResult> resultados = combinador.procesarLote(lote);
+        // El llamante se cansa de esperar mientras se confirma la transacción
+        abandonada.resultado().cancel(false);
+        combinador.entregar(lote, resultados);
+
+        // Solo se libera la retención de la petición abandonada
+        Mockito.verify(reservaStockRepository).liberar(Mockito.argThat(reservas ->
+                reservas.size() == 1 && reservas.iterator().next().getOrdenId().equals(10L)));
+        Mockito.verify(productoRepository).sumarStockReservado(new TreeMap<>(Map.of(1L, -3)));
+        assertTrue(esperada.resultado().join().reserved());
+    }
+
+    @Test
+    void reservarStock_registraLasRetencionesDelPedido() {
+        catalogoService.reservasAtomicas = true;
+        Mockito.when(productoRepository.reservarStockAtomico(Mockito.any())).thenReturn(Set.of());
+
+        catalogoService.reservarStockMultiple(List.of(
+                new CatalogoResource.ReservaItemRequest(1L, 2),
+                new CatalogoResource.ReservaItemRequest(2L, 1)), 7L);
+
+        Mockito.verify(reservaStockRepository).registrar(Mockito.argThat(reservas ->
+                reservas.size() == 2 && reservas.stream().allMatch(r -> r.getOrdenId().equals(7L))));
+    }
+
+    @Test
+    void procesarEventoStock_liberacionTardiaNoLiberaDosVeces() throws Exception {
+        // La retención del pedido ya venció y el barrido devolvió sus unidades
+        Mockito.when(reservaStockRepository.ordenesConRetenciones(Set.of(7L))).thenReturn(Set.of(7L));
+        Mockito.when(reservaStockRepository.cerrar(Mockito.anyCollection(), Mockito.any())).thenReturn(new HashMap<>());
+
+        catalogoService.procesarEventoStock("{\"tipo\":\"LIBERAR_STOCK\",\"productos\":{\"1\":3},\"ordenId\":7}");
+
+        Mockito.verify(productoRepository).aplicarDeltasStock(
+                new TreeMap<>(Map.of(1L, new RepositorioProducto.DeltaStock(0, 0))));
+    }
+
+    @Test
+    void procesarEventoStock_confirmacionDescuentaLoRetenido() throws Exception {
+        Mockito.when(reservaStockRepository.ordenesConRetenciones(Set.of(7L))).thenReturn(Set.of(7L));
+        Mockito.when(reservaStockRepository.cerrar(Mockito.anyCollection(), Mockito.any())).thenReturn(new HashMap<>());
+        Mockito.when(reservaStockRepository.cerrar(Set.of(7L), ReservaStock.Estado.CONFIRMADA))
+                .thenReturn(new HashMap<>(Map.of(7L, Map.of(1L, 3))));
+
+        catalogoService.procesarEventoStock("{\"tipo\":\"CONFIRMAR_COMPRA\",\"productos\":{\"1\":3},\"ordenId\":7}");
+
+        Mockito.verify(productoRepository).aplicarDeltasStock(
+                new TreeMap<>(Map.of(1L, new RepositorioProducto.DeltaStock(-3, -3))));
+    }
+
+    @Test
+    void procesarEventosStock_agrupaElLotePorProducto() {
+        Mockito.when(reservaStockRepository.ordenesConRetenciones(Mockito.anyCollection())).thenReturn(Set.of());
+        Mockito.when(reservaStockRepository.cerrar(Mockito.anyCollection(), Mockito.any())).thenReturn(new HashMap<>());
+        catalogoService.procesarEventosStock(List.of(
+                "{\"tipo\":\"CONFIRMAR_COMPRA\",\"productos\":{\"1\":2,\"2\":1}}",
+                "{\"tipo\":\"LIBERAR_STOCK\",\"productos\":{\"1\":4}}",
+                "no es json",
+                "{\"tipo\":\"CONFIRMAR_COMPRA\",\"productos\":{\"1\":1}}"));
+
+        Mockito.verify(productoRepository).aplicarDeltasStock(new TreeMap<>(Map.of(
+                1L, new RepositorioProducto.DeltaStock(-3, -7),
+                2L, new RepositorioProducto.DeltaStock(-1, -1))));
+    }
+
+    @Test
+    void procesarEventosStock_ignoraLosEventosYaAplicados() {
+        Mockito.when(reservaStockRepository.ordenesConRetenciones(Mockito.anyCollection())).thenReturn(Set.of());
+        Mockito.when(reservaStockRepository.cerrar(Mockito.anyCollection(), Mockito.any())).thenReturn(new HashMap<>());
+        // La confirmación del pedido 7 ya se aplicó antes de un rebalanceo
+        Mockito.when(eventoProcesadoRepository.registrarNuevas(Mockito.anyCollection()))
+                .thenReturn(new HashSet<>(Set.of("CONFIRMAR_COMPRA:8")));
+
+        catalogoService.procesarEventosStock(List.of(
+                "{\"tipo\":\"CONFIRMAR_COMPRA\",\"productos\":{\"1\":2},\"ordenId\":7}",
+                "{\"tipo\":\"CONFIRMAR_COMPRA\",\"productos\":{\"1\":1},\"ordenId\":8}",
+                "{\"tipo\":\"CONFIRMAR_COMPRA\",\"productos\":{\"1\":1},\"ordenId\":8}"));
+
+        Mockito.verify(productoRepository).aplicarDeltasStock(
+                new TreeMap<>(Map.of(1L, new RepositorioProducto.DeltaStock(-1, -1))));
+    }
+
     @Test
     void procesarEventoValoracion_valida() throws Exception {
         Long productoId = 1L;
         ValoracionDTO dto = new ValoracionDTO("user123", productoId, 5, "Muy bueno");
         String mensaje = new ObjectMapper().writeValueAsString(dto);
 
-        Producto producto = new Producto();
-        producto.setId(productoId);
-        Mockito.when(productoRepository.findById(productoId)).thenReturn(producto);
-
-        CatalogoService spyService = Mockito.spy(catalogoService);
-        Mockito.doNothing().when(spyService).actualizarPuntuacionProducto(Mockito.eq(producto), Mockito.anyInt());
+        Mockito.when(valoracionRepository.insertarSiNoExiste(productoId, "user123", 5, "Muy bueno")).thenReturn(true);
 
-        spyService.procesarEventoValoracion(mensaje);
+        catalogoService.procesarEventoValoracion(mensaje);
 
-        Mockito.verify(spyService).actualizarPuntuacionProducto(producto, dto.puntuacion());
-        assertEquals(1, producto.getValoraciones().size());
-        Valoracion valoracionGuardada = producto.getValoraciones().get(0);
-        assertEquals(dto.idUsuario(), valoracionGuardada.getIdUsuario());
-        assertEquals(dto.comentario(), valoracionGuardada.getComentario());
+        // Ni se carga el producto ni su colección de valoraciones
+        Mockito.verify(productoRepository).sumarValoracion(productoId, 5);
+        Mockito.verify(productoRepository, Mockito.never()).findById(Mockito.anyLong());
     }
 
     @Test
@@ -293,10 +667,11 @@ class CatalogoServiceTest {
         ValoracionDTO dto = new ValoracionDTO("user123", productoId, 4, "Ok");
         String mensaje = new ObjectMapper().writeValueAsString(dto);
 
-        Mockito.when(productoRepository.findById(productoId)).thenReturn(null);
+        Mockito.when(valoracionRepository.insertarSiNoExiste(productoId, "user123", 4, "Ok")).thenReturn(false);
 
         CatalogoService spyService = Mockito.spy(catalogoService);
         assertDoesNotThrow(() -> spyService.procesarEventoValoracion(mensaje));
+        Mockito.verify(productoRepository, Mockito.never()).sumarValoracion(Mockito.anyLong(), Mockito.anyInt());
     }
 
     @Test
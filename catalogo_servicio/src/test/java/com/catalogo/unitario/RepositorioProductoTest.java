@@ -0,0 +1,138 @@
+package com.catalogo.unitario;
+
+import com.DTO.ProductoDTO;
+import com.Repositorios.RepositorioProducto;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositorioProductoTest {
+
+    RepositorioProducto repositorio;
+
+    EntityManager entityManager;
+
+    Query consulta;
+
+    @BeforeEach
+    void setup() {
+        entityManager = Mockito.mock(EntityManager.class);
+        consulta = Mockito.mock(Query.class);
+        Mockito.when(entityManager.createNativeQuery(Mockito.anyString())).thenReturn(consulta);
+        Mockito.when(consulta.getResultStream()).thenReturn(Stream.empty());
+        repositorio = new RepositorioProducto();
+        repositorio.entityManager = entityManager;
+    }
+
+    @Test
+    void consultaPorPrefijos_cadaTerminoEsUnPrefijo() {
+        assertEquals("zapato:* & roj:*", RepositorioProducto.consultaPorPrefijos("Zapato roj"));
+        assertEquals("cámara:* & 4k:*", RepositorioProducto.consultaPorPrefijos("  Cámara   4K "));
+    }
+
+    @Test
+    void consultaPorPrefijos_descartaLosOperadoresDeTsquery() {
+        assertEquals("rojo:* & azul:*", RepositorioProducto.consultaPorPrefijos("rojo & !azul:* | ("));
+    }
+
+    @Test
+    void consultaPorPrefijos_sinTerminosDevuelveNull() {
+        assertNull(RepositorioProducto.consultaPorPrefijos(" &|!:* "));
+        assertNull(RepositorioProducto.consultaPorPrefijos(""));
+    }
+
+    @Test
+    void buscarProductos_conTextoOrdenaPorRelevancia() {
+        repositorio.buscarProductos(3, 10, "zapato roj", "Ropa", null, null, Map.of());
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(entityManager).createNativeQuery(sql.capture());
+        assertTrue(sql.getValue().contains("to_tsquery('spanish', :texto) q WHERE p.busqueda @@ q"));
+        assertTrue(sql.getValue().contains("lower(p.categoria) = :categoria"));
+        assertTrue(sql.getValue().endsWith("ORDER BY ts_rank(p.busqueda, q) DESC, p.id LIMIT :limite OFFSET :desde"));
+        Mockito.verify(consulta).setParameter("texto", "zapato:* & roj:*");
+        Mockito.verify(consulta).setParameter("categoria", "ropa");
+        Mockito.verify(consulta).setParameter("limite", 10);
+        Mockito.verify(consulta).setParameter("desde", 20);
+    }
+
+    @Test
+    void buscarProductos_convierteLasFilasEnProductoDTO() {
+        Object[] fila = {1L, "Zapato", "Zapato deportivo", new BigDecimal("59.99"), 10, "Ropa", "url",
+                "{\"color\": \"Negro\"}", 4.5};
+        Mockito.when(consulta.getResultStream()).thenReturn(Stream.of((Object) fila));
+
+        List<ProductoDTO> productos = repositorio.buscarProductos(1, 10, "zapato", null, null, null, Map.of());
+
+        assertEquals(1, productos.size());
+        assertEquals("Zapato", productos.get(0).getNombre());
+        assertEquals(new BigDecimal("59.99"), productos.get(0).getPrecio());
+        assertEquals("Negro", productos.get(0).getDetalles().get("color").asText());
+        assertEquals(4.5, productos.get(0).getPuntuacion());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void buscarProductos_textoSinTerminosUsaElListadoNormal() {
+        TypedQuery<Object[]> listado = Mockito.mock(TypedQuery.class);
+        Mockito.when(entityManager.createQuery(Mockito.anyString(), Mockito.eq(Object[].class))).thenReturn(listado);
+        Mockito.when(listado.setFirstResult(Mockito.anyInt())).thenReturn(listado);
+        Mockito.when(listado.setMaxResults(Mockito.anyInt())).thenReturn(listado);
+        Mockito.when(listado.getResultStream()).thenReturn(Stream.empty());
+
+        repositorio.buscarProductos(1, 10, "!!", null, null, null, Map.of());
+
+        Mockito.verify(entityManager, Mockito.never()).createNativeQuery(Mockito.anyString());
+        Mockito.verify(entityManager).createQuery(Mockito.anyString(), Mockito.eq(Object[].class));
+    }
+
+    @Test
+    void contencionDetalles_numerosYBooleanosEnLasDosFormas() {
+        assertEquals(List.of("{\"almacenamiento\":64}", "{\"almacenamiento\":\"64\"}"),
+                textos(RepositorioProducto.contencionDetalles("almacenamiento", "64")));
+        assertEquals(List.of("{\"pantalla\":{\"pulgadas\":6.1}}", "{\"pantalla\":{\"pulgadas\":\"6.1\"}}"),
+                textos(RepositorioProducto.contencionDetalles("pantalla.pulgadas", "6.1")));
+        assertEquals(List.of("{\"5g\":true}", "{\"5g\":\"true\"}"),
+                textos(RepositorioProducto.contencionDetalles("5g", "true")));
+    }
+
+    @Test
+    void contencionDetalles_textoQueNoEsUnNumeroCanonicoSoloComoTexto() {
+        assertEquals(List.of("{\"codigo\":\"0123\"}"), textos(RepositorioProducto.contencionDetalles("codigo", "0123")));
+        assertEquals(List.of("{\"color\":\"Negro\"}"), textos(RepositorioProducto.contencionDetalles("color", "Negro")));
+    }
+
+    @Test
+    void buscarProductos_unFiltroPorDetalleAunqueLasRutasColisionen() {
+        Map<String, String> detalles = new LinkedHashMap<>();
+        detalles.put("pantalla.pulgadas", "6.1");
+        detalles.put("pantalla", "OLED");
+
+        repositorio.buscarProductos(1, 10, null, null, null, null, detalles);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(entityManager).createNativeQuery(sql.capture());
+        assertTrue(sql.getValue().contains(" AND (p.detalles @> CAST(:detalle0_0 AS jsonb))"
+                + " AND (p.detalles @> CAST(:detalle1_0 AS jsonb) OR p.detalles @> CAST(:detalle1_1 AS jsonb))"));
+        Mockito.verify(consulta).setParameter("detalle0_0", "{\"pantalla\":\"OLED\"}");
+        Mockito.verify(consulta).setParameter("detalle1_0", "{\"pantalla\":{\"pulgadas\":6.1}}");
+        Mockito.verify(consulta).setParameter("detalle1_1", "{\"pantalla\":{\"pulgadas\":\"6.1\"}}");
+    }
+
+    private static List<String> textos(List<ObjectNode> documentos) {
+        return documentos.stream().map(ObjectNode::toString).toList();
+    }
+}